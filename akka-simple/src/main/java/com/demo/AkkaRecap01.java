@@ -1,6 +1,7 @@
 package com.demo;
 
 import akka.actor.*;
+import akka.routing.ConsistentHashingPool;
 
 import static io.vavr.API.println;
 
@@ -31,9 +32,21 @@ public class AkkaRecap01 {
 
   public static class GreeterActor extends AbstractLoggingActor {
 
+    /**
+     * A pool of GreeterActor behind a consistent-hashing router keyed by the language code,
+     * so that the greetings of one language are handled in order by the same routee. The
+     * size of the pool and its resizer come from akka.actor.deployment in application.conf,
+     * under the name given to the pool.
+     */
+    public static Props pool() {
+      return new ConsistentHashingPool(1)
+              .withHashMapper(m -> m instanceof String ? m : null)
+              .props(Props.create(GreeterActor.class));
+    }
+
     @Override
     public Receive createReceive() {
-      return receiveBuilder()
+      return DispatchReceiveBuilder.create()
               .matchEquals("en", m -> log().info("GoodDay"))
               .matchEquals("es", m -> log().info("Buen dia"))
               .matchEquals("fr", m -> log().info("Bonjour"))
@@ -0,0 +1,69 @@
+package com.demo;
+
+import akka.actor.AbstractActor;
+import akka.japi.pf.ReceiveBuilder;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+import java.util.Random;
+
+// =========================================================
+// Cost of finding the case of a message, with the matchEquals
+// chain of a ReceiveBuilder and with the hash table of a
+// DispatchReceiveBuilder, for 5, 50 and 500 language codes.
+//
+// The Receive are applied directly, without an actor, so that
+// only the dispatch is measured.
+// =========================================================
+class DispatchBenchmark {
+
+    private static final int MESSAGES = 1 << 16;
+    private static final int ROUNDS = 20;
+
+    private static long handled = 0;
+
+    public static void main(String[] args) {
+        System.out.println(String.format("%8s %20s %20s", "cases", "ReceiveBuilder ns", "Dispatch ns"));
+        for (int cases : new int[]{5, 50, 500}) {
+            final String[] keys = new String[cases];
+            for (int i = 0; i < cases; i++) {
+                keys[i] = "lang-" + i;
+            }
+
+            final ReceiveBuilder chain = ReceiveBuilder.create();
+            final DispatchReceiveBuilder table = DispatchReceiveBuilder.create();
+            for (String key : keys) {
+                chain.matchEquals(key, m -> handled++);
+                table.matchEquals(key, m -> handled++);
+            }
+            chain.matchAny(m -> handled--);
+            table.matchAny(m -> handled--);
+
+            // Every key as often, plus some messages that fall through to matchAny
+            final Random random = new Random(42);
+            final Object[] messages = new Object[MESSAGES];
+            for (int i = 0; i < MESSAGES; i++) {
+                messages[i] = random.nextInt(10) == 0 ? "unknown" : new String(keys[random.nextInt(cases)]);
+            }
+
+            final double chainNanos = measure(chain.build(), messages);
+            final double tableNanos = measure(table.build(), messages);
+            System.out.println(String.format("%8d %20.1f %20.1f", cases, chainNanos, tableNanos));
+        }
+        System.out.println("(" + handled + " messages handled)");
+    }
+
+    // Average time per message of the best round, the first ones warming up the JIT
+    private static double measure(AbstractActor.Receive receive, Object[] messages) {
+        final PartialFunction<Object, BoxedUnit> onMessage = receive.onMessage();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (Object message : messages) {
+                onMessage.apply(message);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (double) best / messages.length;
+    }
+}
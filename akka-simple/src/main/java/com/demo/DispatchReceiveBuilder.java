@@ -0,0 +1,60 @@
+package com.demo;
+
+import akka.actor.AbstractActor;
+import akka.japi.pf.FI;
+import akka.japi.pf.ReceiveBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Un ReceiveBuilder pour les acteurs qui aiguillent leurs messages sur des clés constantes.
+ *
+ * The matchEquals cases are compiled into a hash table when the Receive is built, so
+ * finding the case of a message is one lookup, however many cases there are, instead of
+ * trying them one after the other. Keys are strings or enum constants; when the same key
+ * is given twice, the first case wins, as with a ReceiveBuilder.
+ */
+final class DispatchReceiveBuilder {
+
+  private final Map<Object, FI.UnitApply<Object>> cases = new HashMap<>();
+  private FI.UnitApply<Object> otherwise = null;
+
+  static DispatchReceiveBuilder create() {
+    return new DispatchReceiveBuilder();
+  }
+
+  DispatchReceiveBuilder matchEquals(String key, FI.UnitApply<String> apply) {
+    return add(key, apply);
+  }
+
+  <E extends Enum<E>> DispatchReceiveBuilder matchEquals(E key, FI.UnitApply<E> apply) {
+    return add(key, apply);
+  }
+
+  // Cas par défaut
+  DispatchReceiveBuilder matchAny(FI.UnitApply<Object> apply) {
+    otherwise = apply;
+    return this;
+  }
+
+  AbstractActor.Receive build() {
+    final Map<Object, FI.UnitApply<Object>> table = new HashMap<>(cases);
+    final FI.UnitApply<Object> fallback = otherwise;
+    if (fallback == null) {
+      // Messages without a case are left unhandled
+      return ReceiveBuilder.create()
+              .match(Object.class, table::containsKey, m -> table.get(m).apply(m))
+              .build();
+    }
+    return ReceiveBuilder.create()
+            .matchAny(m -> table.getOrDefault(m, fallback).apply(m))
+            .build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private <K> DispatchReceiveBuilder add(K key, FI.UnitApply<K> apply) {
+    cases.putIfAbsent(key, m -> apply.apply((K) m));
+    return this;
+  }
+}
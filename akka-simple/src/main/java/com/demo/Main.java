@@ -1,11 +1,34 @@
 package com.demo;
 
-import akka.actor.ActorRef;
-import akka.actor.ActorSystem;
-import akka.actor.PoisonPill;
-import akka.actor.Props;
+import akka.actor.*;
+import akka.pattern.PatternsCS;
+import akka.routing.ActorRefRoutee;
+import akka.routing.GetRoutees;
+import akka.routing.RoundRobinRoutingLogic;
+import akka.routing.Routee;
+import akka.routing.Router;
+import akka.routing.Routees;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import scala.concurrent.duration.Duration;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import static akka.actor.ActorRef.noSender;
 import static io.vavr.API.println;
@@ -13,11 +36,48 @@ import static java.lang.Thread.sleep;
 
 public class Main {
 
-    public static void main(String[] args) throws InterruptedException {
+    // Command line flags, see --help
+    static class Args {
+        @Parameter(names = "--replay", description = "Replay greetings from a file, or - for stdin, instead of prompting")
+        String replay = null;
+
+        @Parameter(names = "--workers", description = "Number of GreeterActor workers the replayed lines are routed to, without --pool")
+        int workers = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(names = "--pool", description = "Greet through the GreeterPool configured in application.conf")
+        boolean pool = false;
+
+        @Parameter(names = "--chunk", description = "Lines sent to the workers before waiting for them to catch up")
+        int chunk = 1_000;
+
+        @Parameter(names = {"--help", "-h"}, help = true)
+        boolean help = false;
+    }
+
+    public static void main(String[] argv) throws InterruptedException {
+
+        final Args args = new Args();
+        final JCommander commander = JCommander.newBuilder().addObject(args).programName("Main").build();
+        commander.parse(argv);
+        if (args.help) {
+            commander.usage();
+            return;
+        }
+
+        if (args.replay != null) {
+            replay(args);
+        } else {
+            prompt(args);
+        }
+    }
+
+    static void prompt(Args args) throws InterruptedException {
 
         ActorSystem actorSystem = ActorSystem.create("MultilangSystem");
 
-        ActorRef greeter = actorSystem.actorOf(Props.create(AkkaRecap01.GreeterActor.class), "GreeterActor");
+        ActorRef greeter = args.pool
+                ? actorSystem.actorOf(AkkaRecap01.GreeterActor.pool(), "GreeterPool")
+                : actorSystem.actorOf(Props.create(AkkaRecap01.GreeterActor.class), "GreeterActor");
 
         // Read ranges from the console and process them
         final Scanner scanner = new Scanner(System.in);
@@ -41,4 +101,78 @@ public class Main {
             }
         }
     }
+
+    // Streams the lines of a file or stdin to a pool of greeters, one chunk at a time
+    static void replay(Args args) {
+
+        final ActorSystem actorSystem = ActorSystem.create("MultilangSystem");
+        final ActorMaterializer materializer = ActorMaterializer.create(actorSystem);
+
+        final Function<List<String>, CompletionStage<Void>> send;
+        if (args.pool) {
+            // Lines of one language keep their order, the pool resizes itself
+            final ActorRef pool = actorSystem.actorOf(AkkaRecap01.GreeterActor.pool(), "GreeterPool");
+            send = chunk -> {
+                chunk.forEach(line -> pool.tell(line, noSender()));
+                return PatternsCS.ask(pool, GetRoutees.getInstance(), java.time.Duration.ofMinutes(1))
+                        .thenCompose(routees -> caughtUp(((Routees) routees).getRoutees()));
+            };
+        } else {
+            final List<Routee> routees = new ArrayList<>();
+            for (int i = 0; i < args.workers; i++) {
+                ActorRef greeter = actorSystem.actorOf(Props.create(AkkaRecap01.GreeterActor.class), "GreeterActor-" + i);
+                routees.add(new ActorRefRoutee(greeter));
+            }
+            final Router router = new Router(new RoundRobinRoutingLogic(), routees);
+            send = chunk -> {
+                chunk.forEach(line -> router.route(line, noSender()));
+                return caughtUp(routees);
+            };
+        }
+
+        final Source<ByteString, ?> input = "-".equals(args.replay)
+                ? StreamConverters.fromInputStream(() -> System.in)
+                : FileIO.fromPath(Paths.get(args.replay));
+
+        final AtomicLong lines = new AtomicLong();
+        final long start = System.nanoTime();
+        final Cancellable reporter = actorSystem.scheduler().schedule(
+                Duration.create(1, TimeUnit.SECONDS), Duration.create(1, TimeUnit.SECONDS), new Runnable() {
+                    long last = 0;
+
+                    @Override
+                    public void run() {
+                        long now = lines.get();
+                        println(String.format("%,d lines, %,d messages/s", now, now - last));
+                        last = now;
+                    }
+                }, actorSystem.dispatcher());
+
+        input.via(Framing.delimiter(ByteString.fromString("\n"), 1024, FramingTruncation.ALLOW))
+                .map(bytes -> bytes.utf8String().trim())
+                .filter(line -> !line.isEmpty())
+                .grouped(args.chunk)
+                .mapAsync(2, chunk -> send.apply(chunk).thenApply(__ -> lines.addAndGet(chunk.size())))
+                .runWith(Sink.ignore(), materializer)
+                .whenComplete((done, failure) -> {
+                    reporter.cancel();
+                    if (failure != null) {
+                        println("Replay failed: " + failure);
+                    } else {
+                        double seconds = (System.nanoTime() - start) / 1e9;
+                        println(String.format("Replayed %,d lines in %.1f s, %,.0f messages/s",
+                                lines.get(), seconds, lines.get() / seconds));
+                    }
+                    actorSystem.terminate();
+                });
+    }
+
+    // Identify is answered in mailbox order, so every worker has handled what it was sent before it replies
+    static CompletionStage<Void> caughtUp(List<Routee> routees) {
+        CompletableFuture<?>[] replies = routees.stream()
+                .map(routee -> PatternsCS.ask(((ActorRefRoutee) routee).ref(), new Identify(0), java.time.Duration.ofMinutes(1))
+                        .toCompletableFuture())
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(replies);
+    }
 }
@@ -0,0 +1,177 @@
+package com.demo;
+
+import akka.actor.*;
+import org.HdrHistogram.Histogram;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// =========================================================
+// Throughput benchmark of the Order Management workflow
+//
+// Streams CreateOrder commands at a fixed rate and measures
+// the end-to-end latency until OrderCompleted. Recovery of
+// the aggregates is timed separately, so run it once with
+// --fresh-journal and once against the journal left behind.
+// =========================================================
+class OrderBenchmark {
+
+    static void run(OrderManagement.Args args) throws Exception {
+        Trace.enabled = false;
+
+        final ActorSystem system = ActorSystem.create("OrderManagement");
+        final Inbox inbox = Inbox.create(system);
+        system.eventStream().subscribe(inbox.getRef(), Recovered.class);
+
+        // Recovery: the aggregates replay their journal before handling any command
+        final long recoveryStart = System.nanoTime();
+        final ActorRef inventory = system.actorOf(Props.create(Inventory.class), "Inventory");
+        final ActorRef payment = system.actorOf(Props.create(Payment.class), "Payment");
+        for (int i = 0; i < 2; i++) {
+            Recovered recovered = (Recovered) inbox.receive(Duration.create(1, TimeUnit.HOURS));
+            System.out.println("Recovered " + recovered.persistenceId + ": " + recovered.events + " events");
+        }
+        final long recoveryMillis = NANOSECONDS.toMillis(System.nanoTime() - recoveryStart);
+        System.out.println("Recovery took " + recoveryMillis + " ms");
+
+        if (args.projection) {
+            system.actorOf(OrderProjection.props(1000, 10_000), "OrderProjection");
+        }
+
+        // Persistence: stream orders through the workflow
+        final ActorRef orders = system.actorOf(
+                Orders.props(inventory, payment, Duration.create(args.orderTimeout, SECONDS)), "Orders");
+        system.actorOf(Client.props(orders, args), "Client");
+
+        // The client shuts the system down once the last order is done
+        Await.ready(system.whenTerminated(), Duration.Inf());
+    }
+
+    // =========================================================
+    // Client sending CreateOrder and timing the replies
+    // =========================================================
+    static class Client extends AbstractActor {
+
+        static final Object TICK = "tick";
+        static final Object REPORT = "report";
+        static final int TICKS_PER_SECOND = 100;
+
+        static Props props(ActorRef orders, OrderManagement.Args args) {
+            return Props.create(Client.class, orders, args);
+        }
+
+        final ActorRef orders;
+        final OrderManagement.Args args;
+
+        // Orders of a user complete in the order they were sent, so a queue of send times per user is enough
+        final ArrayDeque<Long>[] sentAt;
+        final Histogram latency = new Histogram(3); // microseconds
+
+        Cancellable ticks;
+        Cancellable reports;
+        double budget = 0;
+        long sent = 0;
+        long completed = 0;
+        long failed = 0;
+        final Map<String, Long> failures = new TreeMap<>(); // reason -> orders
+        long journalWrites = 0;
+        long startNanos;
+        long lastReportNanos;
+        long lastCompleted = 0;
+        long lastJournalWrites = 0;
+
+        @SuppressWarnings("unchecked")
+        public Client(ActorRef orders, OrderManagement.Args args) {
+            this.orders = orders;
+            this.args = args;
+            this.sentAt = new ArrayDeque[args.users];
+            for (int i = 0; i < args.users; i++) {
+                sentAt[i] = new ArrayDeque<>();
+            }
+        }
+
+        @Override
+        public void preStart() {
+            // Every event published by an aggregate has been written to the journal first, possibly in a batch
+            getContext().system().eventStream().subscribe(getSelf(), Event.class);
+
+            startNanos = lastReportNanos = System.nanoTime();
+            Scheduler scheduler = getContext().system().scheduler();
+            ticks = scheduler.schedule(Duration.Zero(), Duration.create(1000 / TICKS_PER_SECOND, MILLISECONDS),
+                    getSelf(), TICK, getContext().dispatcher(), getSelf());
+            reports = scheduler.schedule(Duration.create(1, SECONDS), Duration.create(1, SECONDS),
+                    getSelf(), REPORT, getContext().dispatcher(), getSelf());
+        }
+
+        @Override
+        public void postStop() {
+            ticks.cancel();
+            reports.cancel();
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .matchEquals(TICK, __ -> send())
+                    .matchEquals(REPORT, __ -> report())
+                    .match(OrderCompleted.class, evt -> {
+                        completed += 1;
+                        latency.recordValue(NANOSECONDS.toMicros(System.nanoTime() - sentAt[evt.userId].poll()));
+                        finishIfDone();
+                    })
+                    .match(OrderFailed.class, evt -> {
+                        failed += 1;
+                        failures.merge(evt.reason, 1L, Long::sum);
+                        sentAt[evt.userId].poll();
+                        finishIfDone();
+                    })
+                    .match(Event.class, __ -> journalWrites += 1)
+                    .build();
+        }
+
+        void send() {
+            budget = Math.min(budget + (double) args.rate / TICKS_PER_SECOND, args.rate);
+            while (budget >= 1 && sent < args.orders && sent - completed - failed < args.maxInFlight) {
+                int userId = (int) (sent % args.users);
+                sentAt[userId].add(System.nanoTime());
+                orders.tell(new CreateOrder(userId, (int) (sent % args.products)), getSelf());
+                sent += 1;
+                budget -= 1;
+            }
+        }
+
+        void report() {
+            long now = System.nanoTime();
+            double seconds = (now - lastReportNanos) / 1e9;
+            System.out.printf("%,12d sent %,12d completed %,8d failed | %,10.0f orders/s %,10.0f journal events/s | p50 %,8d us p99 %,8d us%n",
+                    sent, completed, failed,
+                    (completed - lastCompleted) / seconds, (journalWrites - lastJournalWrites) / seconds,
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(99));
+            lastReportNanos = now;
+            lastCompleted = completed;
+            lastJournalWrites = journalWrites;
+        }
+
+        void finishIfDone() {
+            if (completed + failed < args.orders) return;
+
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            System.out.println();
+            System.out.printf("Orders:         %,d completed, %,d failed in %.1f s%n", completed, failed, seconds);
+            failures.forEach((reason, count) -> System.out.printf("  %-28s %,d%n", reason + ":", count));
+            System.out.printf("Throughput:     %,.0f orders/s%n", completed / seconds);
+            System.out.printf("Journal events: %,d (%,.0f events/s)%n", journalWrites, journalWrites / seconds);
+            System.out.println("Latency CreateOrder -> OrderCompleted (ms):");
+            latency.outputPercentileDistribution(System.out, 5, 1000.0);
+            getContext().system().terminate();
+        }
+    }
+}
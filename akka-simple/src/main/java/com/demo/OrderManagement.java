@@ -2,11 +2,28 @@ package com.demo;
 
 import akka.actor.*;
 import akka.persistence.AbstractPersistentActor;
+import akka.persistence.RecoveryCompleted;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 // ===============================================================
 // Demo of an Event-driven Architecture in Akka and Java.
@@ -27,52 +44,107 @@ import java.util.concurrent.TimeoutException;
 //       probably Kafka or Kinesis. Etc.
 // ===============================================================
 
+// =========================================================
+// Console tracing of the workflow, turned off when benchmarking
+// =========================================================
+final class Trace {
+    static volatile boolean enabled = true;
+
+    static void println(String line) {
+        if (enabled) System.out.println(line);
+    }
+}
+
 // =========================================================
 // Commands
+//
+// Every command and event carries the id of its order, given
+// by Orders, so that a late reply to an order that already
+// timed out is never taken for one of the next order.
 // =========================================================
 interface Command extends Serializable {
 }
 
 class CreateOrder implements Command {
+    final long orderId; // 0 until Orders assigns it
     final int userId;
     final int productId;
 
     CreateOrder(int userId, int productId) {
+        this(0, userId, productId);
+    }
+
+    CreateOrder(long orderId, int userId, int productId) {
+        this.orderId = orderId;
         this.userId = userId;
         this.productId = productId;
     }
 }
 
 class ReserveProduct implements Command {
+    final long orderId;
     final int userId;
     final int productId;
 
-    ReserveProduct(int userId, int productId) {
+    ReserveProduct(long orderId, int userId, int productId) {
+        this.orderId = orderId;
         this.userId = userId;
         this.productId = productId;
     }
 }
 
 class SubmitPayment implements Command {
+    final long orderId;
     final int userId;
     final int productId;
 
-    SubmitPayment(int userId, int productId) {
+    SubmitPayment(long orderId, int userId, int productId) {
+        this.orderId = orderId;
         this.userId = userId;
         this.productId = productId;
     }
 }
 
 class ShipProduct implements Command {
+    final long orderId;
     final int userId;
+    final int productId;
     final int txId;
 
-    ShipProduct(int userId, int txId) {
+    ShipProduct(long orderId, int userId, int productId, int txId) {
+        this.orderId = orderId;
         this.userId = userId;
+        this.productId = productId;
         this.txId = txId;
     }
 }
 
+// Undoes the reservation of the order, if it was made and the product not shipped
+class ReleaseProduct implements Command {
+    final long orderId;
+    final int userId;
+    final int productId;
+
+    ReleaseProduct(long orderId, int userId, int productId) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.productId = productId;
+    }
+}
+
+// Voids the payment of the order, if it was authorized
+class RefundPayment implements Command {
+    final long orderId;
+    final int userId;
+    final int productId;
+
+    RefundPayment(long orderId, int userId, int productId) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.productId = productId;
+    }
+}
+
 // =========================================================
 // Events
 // =========================================================
@@ -80,103 +152,189 @@ interface Event extends Serializable {
 }
 
 class ProductReserved implements Event {
+    final long orderId;
     final int userId;
-    final int txId;
+    final int productId;
 
-    ProductReserved(int userId, int txId) {
+    ProductReserved(long orderId, int userId, int productId) {
+        this.orderId = orderId;
         this.userId = userId;
-        this.txId = txId;
+        this.productId = productId;
     }
 }
 
 class ProductOutOfStock implements Event {
+    final long orderId;
     final int userId;
     final int productId;
 
-    ProductOutOfStock(int userId, int productId) {
+    ProductOutOfStock(long orderId, int userId, int productId) {
+        this.orderId = orderId;
         this.userId = userId;
         this.productId = productId;
     }
 }
 
 class PaymentAuthorized implements Event {
+    final long orderId;
     final int userId;
     final int txId;
 
-    PaymentAuthorized(int userId, int txId) {
+    PaymentAuthorized(long orderId, int userId, int txId) {
+        this.orderId = orderId;
         this.userId = userId;
         this.txId = txId;
     }
 }
 
 class PaymentDeclined implements Event {
+    final long orderId;
     final int userId;
-    final int txId;
+    final int productId;
 
-    PaymentDeclined(int userId, int txId) {
+    PaymentDeclined(long orderId, int userId, int productId) {
+        this.orderId = orderId;
         this.userId = userId;
-        this.txId = txId;
+        this.productId = productId;
+    }
+}
+
+class PaymentRefunded implements Event {
+    final long orderId;
+    final int userId;
+    final int productId;
+
+    PaymentRefunded(long orderId, int userId, int productId) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.productId = productId;
     }
 }
 
 class ProductShipped implements Event {
+    final long orderId;
     final int userId;
+    final int productId;
     final int txId;
 
-    ProductShipped(int userId, int txId) {
+    ProductShipped(long orderId, int userId, int productId, int txId) {
+        this.orderId = orderId;
         this.userId = userId;
+        this.productId = productId;
         this.txId = txId;
     }
 }
 
 class OrderCompleted implements Event {
+    final long orderId;
     final int userId;
     final int txId;
 
-    OrderCompleted(int userId, int txId) {
+    OrderCompleted(long orderId, int userId, int txId) {
+        this.orderId = orderId;
         this.userId = userId;
         this.txId = txId;
     }
 }
 
+class ProductReleased implements Event {
+    final long orderId;
+    final int userId;
+    final int productId;
+
+    ProductReleased(long orderId, int userId, int productId) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.productId = productId;
+    }
+}
+
+class OrderFailed implements Event {
+    final long orderId;
+    final int userId;
+    final int productId;
+    final String reason;
+
+    OrderFailed(long orderId, int userId, int productId, String reason) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.productId = productId;
+        this.reason = reason;
+    }
+}
+
+// Not part of the domain: signals that an aggregate has replayed its journal
+class Recovered implements Serializable {
+    final String persistenceId;
+    final long events;
+
+    Recovered(String persistenceId, long events) {
+        this.persistenceId = persistenceId;
+        this.events = events;
+    }
+}
+
 // =========================================================
-// Top-level service functioning as a Process Manager
-// Coordinating the workflow on behalf of the Client
+// Top-level service routing to one Process Manager per user
+// Orders of the same user are handled one after the other,
+// orders of different users run in parallel
 // =========================================================
 class Orders extends AbstractActor {
 
-    final ActorRef client;
     final ActorRef inventory;
     final ActorRef payment;
+    final FiniteDuration orderTimeout;
 
-    public Orders(ActorRef client, ActorRef inventory, ActorRef payment) {
-        this.client = client;
+    final Map<Integer, ActorRef> processes = new HashMap<>();  // userId -> running OrderProcess
+    final Map<Integer, Integer> pendingOrders = new HashMap<>(); // userId -> orders not yet finished
+    long lastOrderId = 0;
+
+    public Orders(ActorRef inventory, ActorRef payment, FiniteDuration orderTimeout) {
         this.inventory = inventory;
         this.payment = payment;
+        this.orderTimeout = orderTimeout;
+    }
+
+    static Props props(ActorRef inventory, ActorRef payment, FiniteDuration orderTimeout) {
+        return Props.create(Orders.class, inventory, payment, orderTimeout);
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(CreateOrder.class, cmd -> {
-                    System.out.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
-                    inventory.tell(new ReserveProduct(cmd.userId, cmd.productId), getSelf());
+                    pendingOrders.merge(cmd.userId, 1, Integer::sum);
+                    process(cmd.userId).forward(new CreateOrder(++lastOrderId, cmd.userId, cmd.productId), getContext());
                 })
-                .match(ProductReserved.class, evt -> {
-                    System.out.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
-                    payment.tell(new SubmitPayment(evt.userId, evt.txId), getSelf());
-                })
-                .match(PaymentAuthorized.class, evt -> {
-                    System.out.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
-                    inventory.tell(new ShipProduct(evt.userId, evt.txId), getSelf());
-                })
-                .match(ProductShipped.class, evt -> {
-                    System.out.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
-                    client.tell(new OrderCompleted(evt.userId, evt.txId), getSelf());
+                .match(ProductReserved.class, evt -> route(evt.userId, evt))
+                .match(ProductOutOfStock.class, evt -> route(evt.userId, evt))
+                .match(PaymentAuthorized.class, evt -> route(evt.userId, evt))
+                .match(PaymentDeclined.class, evt -> route(evt.userId, evt))
+                .match(ProductShipped.class, evt -> route(evt.userId, evt))
+                .match(OrderProcess.Done.class, done -> {
+                    // Stop the process once it has no more orders to handle, a new one is created on demand
+                    if (pendingOrders.merge(done.userId, -1, Integer::sum) == 0) {
+                        pendingOrders.remove(done.userId);
+                        getContext().stop(processes.remove(done.userId));
+                    }
                 })
                 .build();
     }
 
+    ActorRef process(int userId) {
+        return processes.computeIfAbsent(userId, __ ->
+                getContext().actorOf(OrderProcess.props(userId, inventory, payment, orderTimeout)));
+    }
+
+    void route(int userId, Event evt) {
+        ActorRef process = processes.get(userId);
+        if (process != null) {
+            process.tell(evt, getSelf());
+        } else {
+            Trace.println("EVENT (STALE):\t" + evt + " => " + getSelf().path().name());
+        }
+    }
+
     @Override
     public void preStart() {
         // Subscribe to Events from the Event Stream
@@ -188,48 +346,299 @@ class Orders extends AbstractActor {
     }
 }
 
+// =========================================================
+// Process Manager coordinating the workflow of one order
+// at a time on behalf of the Client
+//
+// Replies are only taken for the current order. Each step
+// waits at most orderTimeout, measured by a scheduled
+// message of that step, so stashed orders and stale replies
+// do not push it back. A failure undoes the steps already
+// taken, including those whose reply may still be on its way.
+// =========================================================
+class OrderProcess extends AbstractActorWithStash {
+
+    static class Done {
+        final int userId;
+
+        Done(int userId) {
+            this.userId = userId;
+        }
+    }
+
+    static class StepTimedOut {
+        final long step;
+
+        StepTimedOut(long step) {
+            this.step = step;
+        }
+    }
+
+    final int userId;
+    final ActorRef inventory;
+    final ActorRef payment;
+    final FiniteDuration orderTimeout;
+
+    ActorRef client;   // Saga state of the current order
+    long orderId;
+    int productId;
+    long step = 0;
+    Cancellable timeout;
+
+    public OrderProcess(int userId, ActorRef inventory, ActorRef payment, FiniteDuration orderTimeout) {
+        this.userId = userId;
+        this.inventory = inventory;
+        this.payment = payment;
+        this.orderTimeout = orderTimeout;
+    }
+
+    static Props props(int userId, ActorRef inventory, ActorRef payment, FiniteDuration orderTimeout) {
+        return Props.create(OrderProcess.class, userId, inventory, payment, orderTimeout);
+    }
+
+    @Override
+    public void postStop() {
+        if (timeout != null) timeout.cancel();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return idle();
+    }
+
+    Receive idle() {
+        return receiveBuilder()
+                .match(CreateOrder.class, cmd -> {
+                    Trace.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
+                    client = getSender();
+                    orderId = cmd.orderId;
+                    productId = cmd.productId;
+                    inventory.tell(new ReserveProduct(orderId, cmd.userId, cmd.productId), getSelf());
+                    await(reserving());
+                })
+                .matchAny(this::ignore)
+                .build();
+    }
+
+    Receive reserving() {
+        return receiveBuilder()
+                .match(ProductReserved.class, evt -> evt.orderId == orderId, evt -> {
+                    Trace.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
+                    payment.tell(new SubmitPayment(orderId, evt.userId, productId), getSelf());
+                    await(paying());
+                })
+                .match(ProductOutOfStock.class, evt -> evt.orderId == orderId, evt -> {
+                    Trace.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
+                    fail("Product out of stock");
+                })
+                // The reservation may still be made, Inventory handles the release after it
+                .match(StepTimedOut.class, this::currentStep, __ -> releaseAndFail("Timed out waiting for the reservation"))
+                .match(CreateOrder.class, __ -> stash())
+                .matchAny(this::ignore)
+                .build();
+    }
+
+    Receive paying() {
+        return receiveBuilder()
+                .match(PaymentAuthorized.class, evt -> evt.orderId == orderId, evt -> {
+                    Trace.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
+                    inventory.tell(new ShipProduct(orderId, evt.userId, productId, evt.txId), getSelf());
+                    await(shipping());
+                })
+                .match(PaymentDeclined.class, evt -> evt.orderId == orderId, evt -> {
+                    Trace.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
+                    releaseAndFail("Payment declined");
+                })
+                // The payment may still be authorized, Payment handles the refund after it
+                .match(StepTimedOut.class, this::currentStep, __ -> refundAndFail("Timed out waiting for the payment"))
+                .match(CreateOrder.class, __ -> stash())
+                .matchAny(this::ignore)
+                .build();
+    }
+
+    Receive shipping() {
+        return receiveBuilder()
+                .match(ProductShipped.class, evt -> evt.orderId == orderId, evt -> {
+                    Trace.println("EVENT:\t\t\t" + evt + " => " + getSelf().path().name());
+                    client.tell(new OrderCompleted(orderId, evt.userId, evt.txId), getSelf());
+                    done();
+                })
+                .match(StepTimedOut.class, this::currentStep, __ -> refundAndFail("Timed out waiting for the shipment"))
+                .match(CreateOrder.class, __ -> stash())
+                .matchAny(this::ignore)
+                .build();
+    }
+
+    void await(Receive next) {
+        if (timeout != null) timeout.cancel();
+        // A timeout already sent for the previous step no longer matches
+        timeout = getContext().system().scheduler().scheduleOnce(orderTimeout, getSelf(),
+                new StepTimedOut(++step), getContext().dispatcher(), getSelf());
+        getContext().become(next);
+    }
+
+    boolean currentStep(StepTimedOut timedOut) {
+        return timedOut.step == step;
+    }
+
+    // Undo the payment, then the reservation, before failing the order
+    void refundAndFail(String reason) {
+        payment.tell(new RefundPayment(orderId, userId, productId), getSelf());
+        releaseAndFail(reason);
+    }
+
+    // Undo the reservation before failing the order
+    void releaseAndFail(String reason) {
+        inventory.tell(new ReleaseProduct(orderId, userId, productId), getSelf());
+        fail(reason);
+    }
+
+    void fail(String reason) {
+        Trace.println("FAILED:\t\t\t" + reason + " => " + getSelf().path().name());
+        client.tell(new OrderFailed(orderId, userId, productId, reason), getSelf());
+        done();
+    }
+
+    void done() {
+        if (timeout != null) timeout.cancel();
+        timeout = null;
+        step += 1;
+        client = null;
+        getContext().getParent().tell(new Done(userId), getSelf());
+        getContext().become(idle());
+        unstashAll();
+    }
+
+    void ignore(Object msg) {
+        Trace.println("EVENT (IGNORED):\t" + msg + " => " + getSelf().path().name());
+    }
+}
+
+
+// =========================================================
+// Base of the Event Sourced Aggregates
+//
+// In "persist" mode every command waits for its own write.
+// In "batched" mode the events of all commands arriving
+// during a write are written together as the next write,
+// and are still published in the order they were created.
+// =========================================================
+abstract class Aggregate extends AbstractPersistentActor {
+
+    final boolean batched = "batched".equals(
+            getContext().system().settings().config().getString("order-management.persist-mode"));
+
+    List<Event> batch = new ArrayList<>(); // Events waiting for the write in flight to complete
+    boolean writing = false;
+
+    void persistAndPublish(Event event) {
+        if (!batched) {
+            persist(event, evt -> {                                 // Try to persist the Event
+                getContext().system().eventStream().publish(evt);  // Publish Event to Event Stream
+            });
+        } else {
+            batch.add(event);
+            if (!writing) writeBatch();
+        }
+    }
+
+    void writeBatch() {
+        List<Event> events = batch;
+        batch = new ArrayList<>();
+        writing = true;
+        persistAllAsync(events, evt -> {                          // Persist the batch as a single write
+            getContext().system().eventStream().publish(evt);      // Publish each Event to Event Stream
+        });
+        deferAsync(events, __ -> {                                 // Runs once the whole batch is written
+            writing = false;
+            if (!batch.isEmpty()) writeBatch();
+        });
+    }
+}
+
 
 // =========================================================
 // Event Sourced Aggregate
 // =========================================================
-class Inventory extends AbstractPersistentActor {
+class Inventory extends Aggregate {
 
     @Override
     public String persistenceId() {
         return "inventory";
     }
 
+    final int stockPerProduct = getContext().system().settings().config().getInt("order-management.stock-per-product");
+
     int nrOfProductsShipped = 0; // Mutable state, persisted in memory (AKA Memory Image)
 
-    Event reserveProduct(int userId, int productId) {
-        System.out.println("SIDE-EFFECT:\tReserving Product => " + getSelf().path().name());
-        return new ProductReserved(userId, productId);
+    // productId -> units reserved or shipped, and not released
+    final Map<Integer, Integer> unitsTaken = new HashMap<>();
+
+    // userId -> order whose reservation is neither shipped nor released. A user has one order
+    // running at a time, and its commands arrive in order, so a release always comes after
+    // the reservation it may undo
+    final Map<Integer, Long> reservedOrders = new HashMap<>();
+
+    Event reserveProduct(long orderId, int userId, int productId) {
+        if (unitsTaken.getOrDefault(productId, 0) >= stockPerProduct) {
+            Trace.println("SIDE-EFFECT:\tProduct out of stock => " + getSelf().path().name());
+            return new ProductOutOfStock(orderId, userId, productId);
+        }
+        Trace.println("SIDE-EFFECT:\tReserving Product => " + getSelf().path().name());
+        return new ProductReserved(orderId, userId, productId);
+    }
+
+    Event shipProduct(long orderId, int userId, int productId, int txId) {
+        Trace.println("SIDE-EFFECT:\tShipping Product => " + getSelf().path().name() +
+                " - ProductsShipped: " + (nrOfProductsShipped + 1));
+        return new ProductShipped(orderId, userId, productId, txId);
+    }
+
+    void update(Event event) {
+        if (event instanceof ProductReserved) {
+            ProductReserved evt = (ProductReserved) event;
+            reservedOrders.put(evt.userId, evt.orderId);
+            unitsTaken.merge(evt.productId, 1, Integer::sum);
+        } else if (event instanceof ProductShipped) {
+            nrOfProductsShipped += 1;
+            reservedOrders.remove(((ProductShipped) event).userId);
+        } else if (event instanceof ProductReleased) {
+            ProductReleased evt = (ProductReleased) event;
+            reservedOrders.remove(evt.userId);
+            unitsTaken.merge(evt.productId, -1, Integer::sum);
+        }
+    }
+
+    boolean reserved(long orderId, int userId) {
+        Long reserved = reservedOrders.get(userId);
+        return reserved != null && reserved == orderId;
     }
 
-    Event shipProduct(int userId, int txId) {
-        nrOfProductsShipped += 1; // Update internal state
-        System.out.println("SIDE-EFFECT:\tShipping Product => " + getSelf().path().name() +
-                " - ProductsShipped: " + nrOfProductsShipped);
-        return new ProductShipped(userId, txId);
+    @Override
+    void persistAndPublish(Event event) {
+        update(event); // Commands are checked against the state of the events not yet written too
+        super.persistAndPublish(event);
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(ReserveProduct.class, cmd -> {                                // Receive ReserveProduct Command
-                    System.out.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
-                    Event productStatus = reserveProduct(cmd.userId, cmd.productId); // Try to reserve the product
-                    persist(productStatus, evt -> {                                  // Try to persist the Event
-                        getContext().system().eventStream().publish(evt);            // Publish Event to Event Stream
-                    });
+                    Trace.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
+                    Event productStatus = reserveProduct(cmd.orderId, cmd.userId, cmd.productId); // Try to reserve the product
+                    persistAndPublish(productStatus);                                // Persist and publish the Event
 
                 })
                 .match(ShipProduct.class, cmd -> {                                   // Receive ShipProduct Command
-                    System.out.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
-                    Event shippingStatus = shipProduct(cmd.userId, cmd.txId);        // Try to ship the product
-                    persist(shippingStatus, evt -> {                                 // Try to persist the Event
-                        getContext().system().eventStream().publish(evt);            // Publish Event to Event Stream
-                    });
+                    Trace.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
+                    Event shippingStatus = shipProduct(cmd.orderId, cmd.userId, cmd.productId, cmd.txId); // Try to ship the product
+                    persistAndPublish(shippingStatus);                               // Persist and publish the Event
+                })
+                .match(ReleaseProduct.class, cmd -> {                                // Receive ReleaseProduct Command
+                    Trace.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
+                    if (reserved(cmd.orderId, cmd.userId)) {                         // Nothing to undo otherwise
+                        persistAndPublish(new ProductReleased(cmd.orderId, cmd.userId, cmd.productId)); // Compensate the reservation
+                    }
                 })
                 .build();
     }
@@ -238,13 +647,23 @@ class Inventory extends AbstractPersistentActor {
     public Receive createReceiveRecover() {
         return receiveBuilder()
                 .match(ProductReserved.class, evt -> { // Replay ProductReserved
-                    System.out.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name());
+                    update(evt);                       // Update the internal state
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name());
+                })
+                .match(ProductOutOfStock.class, evt -> { // Replay ProductOutOfStock
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name());
+                })
+                .match(ProductReleased.class, evt -> { // Replay ProductReleased
+                    update(evt);                       // Update the internal state
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name());
                 })
                 .match(ProductShipped.class, evt -> {  // Replay ProductShipped
-                    nrOfProductsShipped += 1;          // Update the internal state
-                    System.out.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name() +
+                    update(evt);                       // Update the internal state
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name() +
                             " - ProductsShipped: " + nrOfProductsShipped);
                 })
+                .match(RecoveryCompleted.class, __ ->  // Tell whoever is waiting on the replay
+                        getContext().system().eventStream().publish(new Recovered(persistenceId(), lastSequenceNr())))
                 .build();
     }
 
@@ -254,33 +673,71 @@ class Inventory extends AbstractPersistentActor {
 // =========================================================
 // Event Sourced Aggregate
 // =========================================================
-class Payment extends AbstractPersistentActor {
+class Payment extends Aggregate {
 
     @Override
     public String persistenceId() {
         return "payment";
     }
 
+    // Simulates a card issuer: every n-th payment submitted is declined, never if 0
+    final int declineEvery = getContext().system().settings().config().getInt("order-management.decline-every");
+
     int uniqueTransactionNr = 0; // Mutable state, persisted in memory (AKA Memory Image)
+    int nrOfPaymentsSubmitted = 0;
+
+    // userId -> last order authorized and not refunded, see Inventory.reservedOrders
+    final Map<Integer, Long> authorizedOrders = new HashMap<>();
 
-    Event processPayment(int userId, int txId) {
-        uniqueTransactionNr += 1;  // Update the internal state
-        System.out.println("SIDE-EFFECT:\tProcessing payment => " + getSelf().path().name() +
-                " - TxNumber: " + uniqueTransactionNr);
-        return new PaymentAuthorized(userId, uniqueTransactionNr);
+    Event processPayment(long orderId, int userId, int productId) {
+        if (declineEvery > 0 && (nrOfPaymentsSubmitted + 1) % declineEvery == 0) {
+            Trace.println("SIDE-EFFECT:\tDeclining payment => " + getSelf().path().name());
+            return new PaymentDeclined(orderId, userId, productId);
+        }
+        Trace.println("SIDE-EFFECT:\tProcessing payment => " + getSelf().path().name() +
+                " - TxNumber: " + (uniqueTransactionNr + 1));
+        return new PaymentAuthorized(orderId, userId, uniqueTransactionNr + 1);
+    }
+
+    void update(Event event) {
+        if (event instanceof PaymentAuthorized) {
+            PaymentAuthorized evt = (PaymentAuthorized) event;
+            nrOfPaymentsSubmitted += 1;
+            uniqueTransactionNr += 1;
+            authorizedOrders.put(evt.userId, evt.orderId);
+        } else if (event instanceof PaymentDeclined) {
+            nrOfPaymentsSubmitted += 1;
+        } else if (event instanceof PaymentRefunded) {
+            authorizedOrders.remove(((PaymentRefunded) event).userId);
+        }
+    }
+
+    boolean authorized(long orderId, int userId) {
+        Long authorized = authorizedOrders.get(userId);
+        return authorized != null && authorized == orderId;
+    }
+
+    @Override
+    void persistAndPublish(Event event) {
+        update(event); // Commands are checked against the state of the events not yet written too
+        super.persistAndPublish(event);
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(SubmitPayment.class, cmd -> {                                 // Receive SubmitPayment Command
-                    System.out.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
-                    Event paymentStatus = processPayment(cmd.userId, cmd.productId); // Try to pay product
-                    persist(paymentStatus, evt -> {                                  // Try to persist the Event
-                        getContext().system().eventStream().publish(evt);            // Publish Event to Event Stream
-                    });
+                    Trace.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
+                    Event paymentStatus = processPayment(cmd.orderId, cmd.userId, cmd.productId); // Try to pay product
+                    persistAndPublish(paymentStatus);                                // Persist and publish the Event
 
                 })
+                .match(RefundPayment.class, cmd -> {                                 // Receive RefundPayment Command
+                    Trace.println("COMMAND:\t\t" + cmd + " => " + getSelf().path().name());
+                    if (authorized(cmd.orderId, cmd.userId)) {                       // Nothing to undo otherwise
+                        persistAndPublish(new PaymentRefunded(cmd.orderId, cmd.userId, cmd.productId)); // Compensate the payment
+                    }
+                })
                 .build();
     }
 
@@ -289,10 +746,20 @@ class Payment extends AbstractPersistentActor {
     public Receive createReceiveRecover() {
         return receiveBuilder()
                 .match(PaymentAuthorized.class, evt -> { // Replay PaymentAuthorized
-                    uniqueTransactionNr += 1;            // Update the internal state
-                    System.out.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name() +
+                    update(evt);                         // Update the internal state
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name() +
                             " - TxNumber: " + uniqueTransactionNr);
                 })
+                .match(PaymentDeclined.class, evt -> {   // Replay PaymentDeclined
+                    update(evt);                         // Update the internal state
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name());
+                })
+                .match(PaymentRefunded.class, evt -> {   // Replay PaymentRefunded
+                    update(evt);                         // Update the internal state
+                    Trace.println("EVENT (REPLAY):\t" + evt + " => " + getSelf().path().name());
+                })
+                .match(RecoveryCompleted.class, __ ->    // Tell whoever is waiting on the replay
+                        getContext().system().eventStream().publish(new Recovered(persistenceId(), lastSequenceNr())))
                 .build();
     }
 }
@@ -301,20 +768,94 @@ class Payment extends AbstractPersistentActor {
 // Running the Order Management simulation
 // =========================================================
 public class OrderManagement {
-    public static void main(String... args) throws Exception {
+
+    // Command line flags, see --help
+    static class Args {
+        @Parameter(names = "--benchmark", description = "Stream CreateOrder commands and report throughput and latency")
+        boolean benchmark = false;
+
+        @Parameter(names = "--orders", description = "Number of orders to send in benchmark mode")
+        long orders = 1_000_000;
+
+        @Parameter(names = "--rate", description = "CreateOrder commands sent per second in benchmark mode")
+        int rate = 10_000;
+
+        @Parameter(names = "--users", description = "Number of distinct users the orders are spread over")
+        int users = 1_000;
+
+        @Parameter(names = "--products", description = "Number of distinct products the orders are spread over")
+        int products = 10_000;
+
+        @Parameter(names = "--stock", description = "Units of each product Inventory can reserve")
+        Integer stock = null;
+
+        @Parameter(names = "--decline-every", description = "Payment declines every n-th payment, never if 0")
+        Integer declineEvery = null;
+
+        @Parameter(names = "--max-in-flight", description = "Orders allowed to be pending at once in benchmark mode")
+        int maxInFlight = 10_000;
+
+        @Parameter(names = "--order-timeout", description = "Seconds an order may wait on a reply before it fails")
+        int orderTimeout = 5;
+
+        @Parameter(names = "--persist-mode", description = "How Inventory and Payment write events: persist or batched")
+        String persistMode = null;
+
+        @Parameter(names = "--projection", description = "Also run the read side projection in benchmark mode")
+        boolean projection = false;
+
+        @Parameter(names = "--fresh-journal", description = "Delete the journal and snapshots before starting")
+        boolean freshJournal = false;
+
+        @Parameter(names = {"--help", "-h"}, help = true)
+        boolean help = false;
+    }
+
+    public static void main(String... argv) throws Exception {
+
+        final Args args = new Args();
+        final JCommander commander = JCommander.newBuilder().addObject(args).programName("OrderManagement").build();
+        commander.parse(argv);
+        if (args.help) {
+            commander.usage();
+            return;
+        }
+
+        if (args.persistMode != null) {
+            System.setProperty("order-management.persist-mode", args.persistMode);
+        }
+        if (args.stock != null) {
+            System.setProperty("order-management.stock-per-product", args.stock.toString());
+        }
+        if (args.declineEvery != null) {
+            System.setProperty("order-management.decline-every", args.declineEvery.toString());
+        }
+
+        if (args.freshJournal) {
+            deleteJournal(ConfigFactory.load());
+        }
+
+        if (args.benchmark) {
+            OrderBenchmark.run(args);
+        } else {
+            demo(args);
+        }
+    }
+
+    static void demo(Args args) {
 
         // Create the Order Management actor system
         final ActorSystem system = ActorSystem.create("OrderManagement");
 
         // Plumbing for "client"
         final Inbox clientInbox = Inbox.create(system);
-        final ActorRef client = clientInbox.getRef();
 
 
         // Create the services
         final ActorRef inventory = system.actorOf(Props.create(Inventory.class), "Inventory");
         final ActorRef payment = system.actorOf(Props.create(Payment.class), "Payment");
-        final ActorRef orders = system.actorOf(Props.create(Orders.class, client, inventory, payment), "Orders");
+        final ActorRef orders = system.actorOf(Orders.props(inventory, payment, Duration.create(args.orderTimeout, TimeUnit.SECONDS)), "Orders");
+        final ActorRef projection = system.actorOf(OrderProjection.props(100, 1000), "OrderProjection");
 
         // Send a CreateOrder Command to the Orders service
         clientInbox.send(orders, new CreateOrder(9, 1337));
@@ -328,8 +869,34 @@ public class OrderManagement {
             System.out.println("Waited 5 seconds for the OrderCompleted event, giving up...");
         }
 
+        try {
+            // Query the read side, it catches up with the journal shortly after the order completes
+            Thread.sleep(1000);
+            clientInbox.send(projection, new OrderProjection.GetUserReport(9));
+            System.out.println("QUERY:\t\t\t" + clientInbox.receive(Duration.create(5, TimeUnit.SECONDS)) + " => Client");
+            clientInbox.send(projection, new OrderProjection.GetProductReport(1337));
+            System.out.println("QUERY:\t\t\t" + clientInbox.receive(Duration.create(5, TimeUnit.SECONDS)) + " => Client");
+
+        } catch (TimeoutException | InterruptedException e) {
+            System.out.println("Waited 5 seconds for the read side, giving up...");
+        }
+
         System.out.println("Order completed. Shutting down system.");
 
         system.terminate();
     }
+
+    static void deleteJournal(Config config) throws IOException {
+        for (String dir : Arrays.asList(
+                config.getString("akka.persistence.journal.leveldb.dir"),
+                config.getString("akka.persistence.snapshot-store.local.dir"))) {
+            Path root = Paths.get(dir);
+            if (Files.exists(root)) {
+                try (Stream<Path> paths = Files.walk(root)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+            System.out.println("Deleted " + root.toAbsolutePath());
+        }
+    }
 }
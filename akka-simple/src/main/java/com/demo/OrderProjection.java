@@ -0,0 +1,231 @@
+package com.demo;
+
+import akka.NotUsed;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.pattern.PatternsCS;
+import akka.persistence.*;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.journal.leveldb.javadsl.LeveldbReadJournal;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// =========================================================
+// Read side of the Order Management demo
+//
+// Tails the journals of Inventory and Payment with Akka
+// Persistence Query and keeps read models that are updated
+// batch by batch, so reports never replay the write side.
+// The read models and the journal offsets they include are
+// saved together as one snapshot, so after a restart the
+// projection resumes right after the last saved offsets.
+//
+// Reservations and payments that a failed order undid, with
+// a ProductReleased or PaymentRefunded, no longer count.
+// =========================================================
+class OrderProjection extends AbstractPersistentActor {
+
+    static final List<String> SOURCES = Arrays.asList("inventory", "payment");
+    static final Object ACK = "ack";
+
+    static Props props(int batchSize, int snapshotEvery) {
+        return Props.create(OrderProjection.class, batchSize, snapshotEvery);
+    }
+
+    // =========================================================
+    // Queries
+    // =========================================================
+    static class GetUserReport implements Serializable {
+        final int userId;
+
+        GetUserReport(int userId) {
+            this.userId = userId;
+        }
+    }
+
+    static class UserReport implements Serializable {
+        final int userId;
+        final int payments;
+
+        UserReport(int userId, int payments) {
+            this.userId = userId;
+            this.payments = payments;
+        }
+
+        @Override
+        public String toString() {
+            return "UserReport(user " + userId + ": " + payments + " payments)";
+        }
+    }
+
+    static class GetProductReport implements Serializable {
+        final int productId;
+
+        GetProductReport(int productId) {
+            this.productId = productId;
+        }
+    }
+
+    static class ProductReport implements Serializable {
+        final int productId;
+        final int reservations;
+        final int shipments;
+
+        ProductReport(int productId, int reservations, int shipments) {
+            this.productId = productId;
+            this.reservations = reservations;
+            this.shipments = shipments;
+        }
+
+        @Override
+        public String toString() {
+            return "ProductReport(product " + productId + ": " + reservations + " reservations, "
+                    + shipments + " shipments)";
+        }
+    }
+
+    // =========================================================
+    // Read models, with the offset reached in each journal
+    // =========================================================
+    static class ReadModel implements Serializable {
+        final Map<String, Long> offsets = new HashMap<>();
+        final Map<Integer, Integer> reservationsPerProduct = new HashMap<>();
+        final Map<Integer, Integer> paymentsPerUser = new HashMap<>();
+        final Map<Integer, Integer> shipmentsPerProduct = new HashMap<>();
+
+        long offset(String persistenceId) {
+            return offsets.getOrDefault(persistenceId, 0L);
+        }
+
+        void apply(EventEnvelope envelope) {
+            if (envelope.sequenceNr() <= offset(envelope.persistenceId())) return; // Seen before a restart
+
+            Object event = envelope.event();
+            if (event instanceof ProductReserved) {
+                reservationsPerProduct.merge(((ProductReserved) event).productId, 1, Integer::sum);
+            } else if (event instanceof ProductReleased) {
+                reservationsPerProduct.merge(((ProductReleased) event).productId, -1, Integer::sum);
+            } else if (event instanceof PaymentAuthorized) {
+                paymentsPerUser.merge(((PaymentAuthorized) event).userId, 1, Integer::sum);
+            } else if (event instanceof PaymentRefunded) {
+                paymentsPerUser.merge(((PaymentRefunded) event).userId, -1, Integer::sum);
+            } else if (event instanceof ProductShipped) {
+                shipmentsPerProduct.merge(((ProductShipped) event).productId, 1, Integer::sum);
+            }
+            offsets.put(envelope.persistenceId(), envelope.sequenceNr());
+        }
+
+        ReadModel copy() {
+            ReadModel copy = new ReadModel();
+            copy.offsets.putAll(offsets);
+            copy.reservationsPerProduct.putAll(reservationsPerProduct);
+            copy.paymentsPerUser.putAll(paymentsPerUser);
+            copy.shipmentsPerProduct.putAll(shipmentsPerProduct);
+            return copy;
+        }
+    }
+
+    static class Batch {
+        final List<EventEnvelope> envelopes;
+
+        Batch(List<EventEnvelope> envelopes) {
+            this.envelopes = envelopes;
+        }
+    }
+
+    final int batchSize;
+    final int snapshotEvery;
+
+    ReadModel model = new ReadModel();
+    long eventsSinceSnapshot = 0;
+
+    public OrderProjection(int batchSize, int snapshotEvery) {
+        this.batchSize = batchSize;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    @Override
+    public String persistenceId() {
+        return "order-projection";
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> model = (ReadModel) offer.snapshot())
+                .match(RecoveryCompleted.class, __ -> startProjection())
+                .build();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Batch.class, batch -> {
+                    batch.envelopes.forEach(model::apply);
+                    eventsSinceSnapshot += batch.envelopes.size();
+                    if (eventsSinceSnapshot >= snapshotEvery) {
+                        saveSnapshot(model.copy()); // Copied, the snapshot is written while the model moves on
+                        eventsSinceSnapshot = 0;
+                    }
+                    getSender().tell(ACK, getSelf());
+                })
+                .match(GetUserReport.class, query -> getSender().tell(new UserReport(query.userId,
+                        model.paymentsPerUser.getOrDefault(query.userId, 0)), getSelf()))
+                .match(GetProductReport.class, query -> getSender().tell(new ProductReport(query.productId,
+                        model.reservationsPerProduct.getOrDefault(query.productId, 0),
+                        model.shipmentsPerProduct.getOrDefault(query.productId, 0)), getSelf()))
+                .match(SaveSnapshotSuccess.class, saved -> // Only the latest snapshot is needed to resume
+                        deleteSnapshots(SnapshotSelectionCriteria.create(
+                                saved.metadata().sequenceNr(), saved.metadata().timestamp() - 1)))
+                .match(SaveSnapshotFailure.class, failed ->
+                        Trace.println("PROJECTION:\t\tSnapshot failed, resuming from the previous one: " + failed.cause()))
+                .match(DeleteSnapshotsSuccess.class, __ -> { })
+                .match(Status.Failure.class, failed -> {
+                    throw new IllegalStateException("Projection stream failed", failed.cause()); // Restart and resume
+                })
+                .build();
+    }
+
+    void startProjection() {
+        final LeveldbReadJournal journal = PersistenceQuery.get(getContext().getSystem())
+                .getReadJournalFor(LeveldbReadJournal.class, LeveldbReadJournal.Identifier());
+
+        // Offsets are read here, on the actor's thread, before the stream starts
+        Source<EventEnvelope, NotUsed> events = Source.empty();
+        for (String persistenceId : SOURCES) {
+            Trace.println("PROJECTION:\t\tResuming " + persistenceId + " after event " + model.offset(persistenceId));
+            events = events.merge(tail(journal, persistenceId, model.offset(persistenceId)));
+        }
+
+        events.groupedWithin(batchSize, Duration.ofMillis(100))
+                .mapAsync(1, batch -> PatternsCS.ask(getSelf(), new Batch(batch), Duration.ofSeconds(10)))
+                .runWith(Sink.ignore(), ActorMaterializer.create(getContext())) // Stopped along with the actor
+                .whenComplete((done, failure) -> {
+                    if (failure != null) getSelf().tell(new Status.Failure(failure), getSelf());
+                });
+    }
+
+    // The live query only reads max-buffer-size events per refresh-interval, so the
+    // backlog is read with the current query first and the live one takes over after it
+    static Source<EventEnvelope, NotUsed> tail(LeveldbReadJournal journal, String persistenceId, long offset) {
+        final AtomicLong lastSeen = new AtomicLong(offset);
+        return journal.currentEventsByPersistenceId(persistenceId, offset + 1, Long.MAX_VALUE)
+                .map(envelope -> {
+                    lastSeen.set(envelope.sequenceNr());
+                    return envelope;
+                })
+                .concat(Source.lazily(() ->
+                        journal.eventsByPersistenceId(persistenceId, lastSeen.get() + 1, Long.MAX_VALUE)))
+                .mapMaterializedValue(__ -> NotUsed.getInstance());
+    }
+}
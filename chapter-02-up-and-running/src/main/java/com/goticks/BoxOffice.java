@@ -1,102 +1,254 @@
 package com.goticks;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithStash;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import io.vavr.control.Option;
+import com.typesafe.config.Config;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.stream.IntStream;
 
 import static akka.pattern.PatternsCS.ask;
 import static akka.pattern.PatternsCS.pipe;
-import static io.vavr.control.Option.ofOptional;
 import static java.util.Optional.empty;
 import static java.util.stream.Collectors.toList;
 
-public class BoxOffice extends AbstractActor implements IBoxOffice {
+/**
+ * Creates and cancels events, and passes the sale of their tickets to a TicketSeller each.
+ *
+ * Events are kept as rows of an {@link EventTable}; a TicketSeller is only started for an
+ * event when tickets are bought or held, restored from its row. A seller that stays idle
+ * stops again, after handing its free tickets back to the row, so the actors follow the
+ * events on sale rather than all of them. While a seller is stopping, the messages for its
+ * event are stashed, and taken up again once it has.
+ */
+public class BoxOffice extends AbstractActorWithStash implements IBoxOffice {
 
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
     private final String msg = "    📩 {}";
     private final Duration timeout;
+    private final Duration holdTimeout;
+    private final Duration holdTick;
+    private final Duration idleTimeout;
+    private final IdempotencyCache<TicketSeller.Tickets> purchases;
+
+    private final EventTable events = new EventTable();
+    private final Map<String, ActorRef> sellers = new HashMap<>();
+    private final Set<String> stopping = new HashSet<>();
 
     private BoxOffice(Duration timeout) {
         this.timeout = timeout;
+        Config config = getContext().getSystem().settings().config();
+        Config holds = config.getConfig("goticks.holds");
+        this.holdTimeout = holds.getDuration("timeout");
+        this.holdTick = holds.getDuration("tick");
+        this.idleTimeout = config.getDuration("goticks.passivation.idle-timeout");
+        Config idempotency = config.getConfig("goticks.idempotency");
+        this.purchases = new IdempotencyCache<>(idempotency.getInt("max-entries"), idempotency.getDuration("ttl"));
     }
 
     public static Props props(Duration timeout) {
         return Props.create(BoxOffice.class, () -> new BoxOffice(timeout));
     }
 
-    private ActorRef createTicketSeller(String name) {
-        return getContext().actorOf(TicketSeller.props(name), name);
+    // The running seller of the event, started from its row if there is none
+    private ActorRef seller(String name) {
+        ActorRef seller = sellers.get(name);
+        if (seller == null) {
+            List<Section> sections = events.sections(name);
+            List<TicketSeller.Ticket> tickets = sections.isEmpty()
+                    ? IntStream.rangeClosed(1, events.total(name))
+                            .mapToObj(ITicketSeller.Ticket::new)
+                            .collect(toList())
+                    : seatedTickets(sections);
+
+            seller = getContext().actorOf(TicketSeller.props(name, holdTimeout, holdTick, idleTimeout), actorName(name));
+            getContext().watch(seller);
+            seller.tell(new TicketSeller.Restore(tickets, events.freeRuns(name)), getSelf());
+            sellers.put(name, seller);
+        }
+        return seller;
+    }
+
+    // Event names are any text, so they are escaped into valid actor names
+    private static String actorName(String event) {
+        try {
+            return URLEncoder.encode(event, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String eventName(String actor) {
+        try {
+            return URLDecoder.decode(actor, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(CreateEvent.class, this::createEvent)
+                .match(CreateEvents.class, this::createEvents)
                 .match(GetTickets.class, this::getTickets)
+                .match(HoldTickets.class, this::holdTickets)
+                .match(ConfirmHold.class, this::confirmHold)
+                .match(ReleaseHold.class, this::releaseHold)
                 .match(GetEvent.class, this::getEvent)
                 .match(GetEvents.class, this::getEvents)
                 .match(CancelEvent.class, this::cancelEvent)
+                .match(TicketSeller.Idle.class, this::idle)
+                .match(TicketSeller.Passivated.class, this::passivated)
+                .match(TicketSeller.Busy.class, this::busy)
+                .match(Terminated.class, this::terminated)
                 .build();
     }
 
     private void createEvent(CreateEvent createEvent) {
         log.debug(msg, createEvent);
 
-        ofOptional(getContext().findChild(createEvent.getName()))
-                .peek(__ -> getContext().sender().tell(new EventExists(), self()))
-                .onEmpty(() -> {
-                    List<TicketSeller.Ticket> newTickets =
-                            IntStream.rangeClosed(1, createEvent.getTickets())
-                                    .mapToObj(ITicketSeller.Ticket::new)
-                                    .collect(toList());
-
-                    ActorRef eventTickets = createTicketSeller(createEvent.getName());
-                    eventTickets.tell(new TicketSeller.Add(newTickets), getSelf());
-                    getContext().sender()
-                            .tell(new EventCreated(new Event(createEvent.getName(), createEvent.getTickets())), getSelf());
-                });
+        getContext().sender().tell(create(createEvent), getSelf());
+    }
+
+    private void createEvents(CreateEvents createEvents) {
+        log.debug(msg, createEvents.getEvents().size() + " events");
+
+        List<EventResponse> responses = new ArrayList<>(createEvents.getEvents().size());
+        for (CreateEvent createEvent : createEvents.getEvents()) {
+            responses.add(create(createEvent));
+        }
+        getContext().sender().tell(new EventResponses(responses), getSelf());
+    }
+
+    private EventResponse create(CreateEvent createEvent) {
+        if (!events.add(createEvent.getName(), createEvent.getTickets(), createEvent.getSections())) {
+            return new EventExists();
+        }
+        getContext().getSystem().eventStream()
+                .publish(new TicketSeller.Remaining(createEvent.getName(), createEvent.getTickets()));
+        return new EventCreated(new Event(createEvent.getName(), createEvent.getTickets()));
+    }
+
+    // One ticket per seat, numbered in the order of the sections and rows
+    private static List<TicketSeller.Ticket> seatedTickets(List<Section> sections) {
+        List<TicketSeller.Ticket> tickets = new ArrayList<>();
+        for (Section section : sections) {
+            for (int row = 0; row < section.getRows().size(); row++) {
+                for (int seat = 1; seat <= section.getRows().get(row); seat++) {
+                    tickets.add(new ITicketSeller.Ticket(tickets.size() + 1,
+                            new ITicketSeller.Seat(section.getName(), row + 1, seat)));
+                }
+            }
+        }
+        return tickets;
+    }
+
+    // Stashes the message if the seller of the event is stopping
+    private boolean stashed(String name) {
+        if (!stopping.contains(name)) return false;
+        stash();
+        return true;
     }
 
     private void getTickets(GetTickets getTickets) {
         log.debug(msg, getTickets);
+        if (stashed(getTickets.getEvent())) return;
 
-        Optional<ActorRef> child = getContext().findChild(getTickets.getEvent());
-
-        if (child.isPresent()) {
-            child.get().forward(new TicketSeller.Buy(getTickets.getTickets()), getContext());
-        } else {
+        if (!events.contains(getTickets.getEvent())) {
             getContext().sender().tell(new TicketSeller.Tickets(getTickets.getEvent()), getSelf());
+        } else if (getTickets.getIdempotencyKey().isPresent()) {
+            // Retries wait for the purchase in flight, which gives up like any request after timeout
+            // and is then forgotten, so that the next retry asks again; the tickets are kept for the ttl
+            CompletionStage<TicketSeller.Tickets> tickets = purchases
+                    .attach(getTickets.getEvent() + "/" + getTickets.getIdempotencyKey().get(), getTickets.getTickets(),
+                            () -> ask(seller(getTickets.getEvent()), new TicketSeller.Buy(getTickets.getTickets()), timeout)
+                                    .thenApply(TicketSeller.Tickets.class::cast))
+                    .orElseGet(() -> CompletableFuture.completedFuture(new TicketSeller.Tickets(getTickets.getEvent())));
+            pipe(tickets, getContext().dispatcher()).to(sender());
+        } else {
+            seller(getTickets.getEvent()).forward(new TicketSeller.Buy(getTickets.getTickets()), getContext());
         }
     }
 
+    private void holdTickets(HoldTickets holdTickets) {
+        log.debug(msg, holdTickets);
+        if (stashed(holdTickets.getEvent())) return;
+
+        if (events.contains(holdTickets.getEvent()))
+            seller(holdTickets.getEvent()).forward(new TicketSeller.Hold(holdTickets.getTickets()), getContext());
+        else
+            getContext().sender().tell(new TicketSeller.Held(holdTickets.getEvent()), getSelf());
+    }
+
+    // A seller only stops without holds, so there are none to confirm or release without one
+    private void confirmHold(ConfirmHold confirmHold) {
+        log.debug(msg, confirmHold);
+        if (stashed(confirmHold.getEvent())) return;
+
+        ActorRef seller = sellers.get(confirmHold.getEvent());
+        if (seller != null)
+            seller.forward(new TicketSeller.Confirm(confirmHold.getHold()), getContext());
+        else
+            getContext().sender().tell(new TicketSeller.Tickets(confirmHold.getEvent()), getSelf());
+    }
+
+    private void releaseHold(ReleaseHold releaseHold) {
+        log.debug(msg, releaseHold);
+        if (stashed(releaseHold.getEvent())) return;
+
+        ActorRef seller = sellers.get(releaseHold.getEvent());
+        if (seller != null)
+            seller.forward(new TicketSeller.Release(releaseHold.getHold()), getContext());
+        else
+            getContext().sender().tell(new TicketSeller.Tickets(releaseHold.getEvent()), getSelf());
+    }
+
     private void getEvent(GetEvent getEvent) {
         log.debug(msg, getEvent);
+        if (stashed(getEvent.getName())) return;
 
-        ofOptional(getContext().findChild(getEvent.getName()))
-                .peek(child -> child.forward(new TicketSeller.GetEvent(), getContext()))
-                .onEmpty(() -> getContext().sender().tell(empty(), getSelf()));
+        ActorRef seller = sellers.get(getEvent.getName());
+        int available = events.available(getEvent.getName());
+        if (seller != null)
+            seller.forward(new TicketSeller.GetEvent(), getContext());
+        else if (available >= 0)
+            getContext().sender().tell(Optional.of(new Event(getEvent.getName(), available)), getSelf());
+        else
+            getContext().sender().tell(empty(), getSelf());
     }
 
     @SuppressWarnings("unchecked")
     private void getEvents(GetEvents getEvents) {
         log.debug(msg, getEvents);
 
+        // Only the events on sale or stopping ask their seller
         List<CompletableFuture<Optional<Event>>> children = new ArrayList<>();
-        getContext().getChildren().forEach(child ->
-                children.add(ask(getSelf(), new GetEvent(child.path().name()), timeout)
+        this.events.forEach((name, available) -> {
+            if (sellers.containsKey(name))
+                children.add(ask(getSelf(), new GetEvent(name), timeout)
                         .thenApply(event -> (Optional<Event>) event)
-                        .toCompletableFuture()));
+                        .toCompletableFuture());
+            else
+                children.add(CompletableFuture.completedFuture(Optional.of(new Event(name, available))));
+        });
 
         CompletionStage<Events> futureEvents = CompletableFuture
                 .allOf(children.toArray(new CompletableFuture[0]))
@@ -114,11 +266,52 @@ public class BoxOffice extends AbstractActor implements IBoxOffice {
 
     private void cancelEvent(CancelEvent cancelEvent) {
         log.debug(msg, cancelEvent);
+        if (stashed(cancelEvent.getName())) return;
 
-        Optional<ActorRef> child = getContext().findChild(cancelEvent.getName());
-        if (child.isPresent())
-            child.get().forward(new TicketSeller.Cancel(), getContext());
-        else
+        String name = cancelEvent.getName();
+        ActorRef seller = sellers.get(name);
+        int available = events.available(name);
+        if (seller != null) {
+            // Until it has stopped, the event cannot be sold again under the same name
+            stopping.add(name);
+            seller.forward(new TicketSeller.Cancel(), getContext());
+        } else if (available >= 0) {
+            getContext().sender().tell(Optional.of(new Event(name, available)), getSelf());
+            getContext().getSystem().eventStream().publish(new TicketSeller.Remaining(name, 0));
+        } else {
             getContext().sender().tell(empty(), getSelf());
+        }
+        events.remove(name);
+    }
+
+    private void idle(TicketSeller.Idle idle) {
+        log.debug(msg, idle);
+
+        // Not a seller already cancelled or stopping
+        if (getSender().equals(sellers.get(idle.getEvent())) && stopping.add(idle.getEvent())) {
+            getSender().tell(new TicketSeller.Passivate(), getSelf());
+        }
+    }
+
+    private void passivated(TicketSeller.Passivated passivated) {
+        log.debug(msg, passivated);
+
+        events.update(passivated.getEvent(), passivated.getTickets(), passivated.getFreeRuns());
+    }
+
+    private void busy(TicketSeller.Busy busy) {
+        log.debug(msg, busy);
+
+        stopping.remove(busy.getEvent());
+        unstashAll();
+    }
+
+    private void terminated(Terminated terminated) {
+        String name = eventName(terminated.getActor().path().name());
+        log.debug(msg, "seller of " + name + " stopped");
+
+        sellers.remove(name);
+        stopping.remove(name);
+        unstashAll();
     }
 }
@@ -0,0 +1,194 @@
+package com.goticks;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaTypes;
+import akka.japi.pf.PFBuilder;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.goticks.IBoxOffice.CreateEvent;
+import com.goticks.IBoxOffice.CreateEvents;
+import com.goticks.IBoxOffice.EventCreated;
+import com.goticks.IBoxOffice.EventResponse;
+import com.goticks.IBoxOffice.EventResponses;
+import com.goticks.IEventMarshalling.EventError;
+import com.goticks.IEventMarshalling.ImportResult;
+import com.goticks.IEventMarshalling.ImportSummary;
+import com.typesafe.config.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static akka.pattern.PatternsCS.ask;
+
+/**
+ * Creates the events of a streamed body, one per line, set by goticks.import.
+ *
+ * Lines are either NDJSON, {"name": "RHCP", "tickets": 10} or with sections, or CSV,
+ * name,tickets with an optional header. The body is split into lines as it comes in, and
+ * the events go to the BoxOffice in CreateEvents of at most batch-size, with at most
+ * parallelism batches waiting for it: the upload is read no faster than the BoxOffice
+ * creates the events, and only those batches are held in memory. The response streams
+ * the result of each line as NDJSON, then the totals.
+ */
+final class EventImport {
+
+  static final MediaType.WithFixedCharset NDJSON = MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8);
+
+  private static final ByteString NEWLINE = ByteString.fromString("\n");
+  private static final String CSV_HEADER = "name,tickets";
+  private static final Object END = new Object();
+
+  enum Format { NDJSON, CSV }
+
+  private final ActorRef boxOffice;
+  private final Duration timeout;
+  private final int batchSize;
+  private final int parallelism;
+  private final int maxLineLength;
+  private final Duration maxBatchDelay;
+
+  EventImport(ActorRef boxOffice, Duration timeout, Config config) {
+    this.boxOffice = boxOffice;
+    this.timeout = timeout;
+    this.batchSize = config.getInt("batch-size");
+    this.parallelism = config.getInt("parallelism");
+    this.maxLineLength = config.getBytes("max-line-length").intValue();
+    this.maxBatchDelay = config.getDuration("max-batch-delay");
+  }
+
+  // The format of a body of that type, if it is one
+  static Optional<Format> format(ContentType contentType) {
+    MediaType mediaType = contentType.mediaType();
+    if (mediaType.mainType().equals("text") && mediaType.subType().equals("csv")) {
+      return Optional.of(Format.CSV);
+    }
+    if (mediaType.mainType().equals("application")
+        && (mediaType.subType().equals("x-ndjson") || mediaType.subType().equals("ndjson"))) {
+      return Optional.of(Format.NDJSON);
+    }
+    return Optional.empty();
+  }
+
+  // A line of the body, with the event to create or why there is none
+  private static final class Row {
+    private final long line;
+    private final CreateEvent event;
+    private final String error;
+
+    private Row(long line, CreateEvent event, String error) {
+      this.line = line;
+      this.event = event;
+      this.error = error;
+    }
+  }
+
+  /**
+   * The NDJSON results of the lines of body, then the totals. Changed runs before and
+   * after each batch sent to the BoxOffice.
+   */
+  Source<ByteString, NotUsed> run(Source<ByteString, ?> body, Format format, Runnable changed) {
+    return body
+        .mapMaterializedValue(__ -> NotUsed.getInstance())
+        .via(Framing.delimiter(NEWLINE, maxLineLength, FramingTruncation.ALLOW))
+        .zipWithIndex()
+        .map(line -> parse(format, line.first(), line.second() + 1))
+        .filter(row -> row.event != null || row.error != null)
+        .groupedWithin(batchSize, maxBatchDelay)
+        .mapAsync(parallelism, rows -> create(rows, changed))
+        .mapConcat(results -> results)
+        .<Object>map(result -> result)
+        // Ends with the reason, and the totals of what was done before
+        .recoverWithRetries(1, new PFBuilder<Throwable, Source<Object, NotUsed>>()
+            .matchAny(failure -> Source.single(new EventError("Import stopped: " + failure.getMessage())))
+            .build())
+        .concat(Source.single(END))
+        .statefulMapConcat(() -> {
+          int[] totals = new int[3];    // Created, exists, invalid
+          return line -> {
+            if (line == END) {
+              return Collections.<Object>singletonList(new ImportSummary(totals[0], totals[1], totals[2]));
+            }
+            if (line instanceof ImportResult) {
+              String result = ((ImportResult) line).getResult();
+              totals["created".equals(result) ? 0 : "exists".equals(result) ? 1 : 2]++;
+            }
+            return Collections.singletonList(line);
+          };
+        })
+        .map(line -> JsonCodec.write(line).concat(NEWLINE));
+  }
+
+  private CompletionStage<List<ImportResult>> create(List<Row> rows, Runnable changed) {
+    List<CreateEvent> events = new ArrayList<>(rows.size());
+    for (Row row : rows) {
+      if (row.event != null) events.add(row.event);
+    }
+    if (events.isEmpty()) return CompletableFuture.completedFuture(results(rows, new ArrayList<>()));
+
+    changed.run();
+    return ask(boxOffice, new CreateEvents(events), timeout)
+        .thenApply(EventResponses.class::cast)
+        .thenApply(responses -> results(rows, responses.getResponses()))
+        .whenComplete((__, failure) -> changed.run());
+  }
+
+  // The responses are those of the rows with an event, in order
+  private static List<ImportResult> results(List<Row> rows, List<EventResponse> responses) {
+    List<ImportResult> results = new ArrayList<>(rows.size());
+    int next = 0;
+    for (Row row : rows) {
+      if (row.event == null) {
+        results.add(new ImportResult(row.line, null, "invalid", row.error));
+      } else {
+        String result = responses.get(next++) instanceof EventCreated ? "created" : "exists";
+        results.add(new ImportResult(row.line, row.event.getName(), result, null));
+      }
+    }
+    return results;
+  }
+
+  // No event and no error for a blank line or the header
+  private static Row parse(Format format, ByteString bytes, long line) {
+    String text = bytes.decodeString(StandardCharsets.UTF_8).trim();
+    if (text.isEmpty() || (format == Format.CSV && line == 1 && text.equalsIgnoreCase(CSV_HEADER))) {
+      return new Row(line, null, null);
+    }
+
+    CreateEvent event;
+    try {
+      event = format == Format.CSV ? csv(text) : JsonCodec.readCreateEvent(bytes);
+    } catch (IllegalArgumentException e) {
+      return new Row(line, null, e.getMessage());
+    }
+    if (event.getName().isEmpty()) return new Row(line, null, "Name expected");
+    if (event.getTickets() < 0) return new Row(line, null, "Negative number of tickets");
+    return new Row(line, event, null);
+  }
+
+  // name,tickets where the name may be quoted, with "" for a quote
+  private static CreateEvent csv(String text) {
+    int comma = text.lastIndexOf(',');
+    if (comma < 0) throw new IllegalArgumentException("name,tickets expected");
+    String name = text.substring(0, comma).trim();
+    if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+      name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+    }
+    try {
+      return new CreateEvent(name, Integer.parseInt(text.substring(comma + 1).trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Number of tickets expected");
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package com.goticks;
+
+import com.goticks.IBoxOffice.Section;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The events of the BoxOffice, one row each, whether a TicketSeller is running for them
+ * or not.
+ *
+ * Rows are spread over parallel arrays, found by name through an open addressing index
+ * of row numbers, so a dormant event costs its name and a few words rather than an
+ * actor and its tickets. An event keeps the seats of its sections, or none for general
+ * admission, and the runs of its free tickets, [first, count, first, count, ...] by
+ * position, or null while none has been sold. Removing a row moves the last one in its
+ * place.
+ */
+final class EventTable {
+
+  private String[] names = new String[16];
+  private int[] hashes = new int[16];
+  private int[] totals = new int[16];
+  private int[] available = new int[16];
+  private int[][] freeRuns = new int[16][];
+  private Section[][] sections = new Section[16][];
+  private int size = 0;
+
+  private int[] slots = new int[32];    // Row + 1, 0 when empty
+  private int mask = 31;
+
+  int size() {
+    return size;
+  }
+
+  boolean contains(String name) {
+    return find(name) >= 0;
+  }
+
+  // A new event, all its tickets free; false if there is one of that name already
+  boolean add(String name, int total, List<Section> seated) {
+    int slot = slotOf(name);
+    if (slot >= 0) return false;
+    if (size == names.length) grow();
+
+    int row = size++;
+    names[row] = name;
+    hashes[row] = spread(name.hashCode());
+    totals[row] = total;
+    available[row] = total;
+    freeRuns[row] = null;
+    sections[row] = seated.isEmpty() ? null : seated.toArray(new Section[0]);
+    slots[-slot - 1] = row + 1;
+    if (size * 2 > slots.length) rehash(slots.length * 2);
+    return true;
+  }
+
+  // The tickets left, or -1 for no such event
+  int available(String name) {
+    int row = find(name);
+    return row < 0 ? -1 : available[row];
+  }
+
+  int total(String name) {
+    return totals[row(name)];
+  }
+
+  // Empty for general admission
+  List<Section> sections(String name) {
+    Section[] seated = sections[row(name)];
+    return seated == null ? Collections.emptyList() : Arrays.asList(seated);
+  }
+
+  // Null while all the tickets are free
+  int[] freeRuns(String name) {
+    return freeRuns[row(name)];
+  }
+
+  // Folds the state of a TicketSeller back into the row
+  void update(String name, int tickets, int[] runs) {
+    int row = row(name);
+    available[row] = tickets;
+    freeRuns[row] = tickets == totals[row] ? null : runs;
+  }
+
+  boolean remove(String name) {
+    int slot = slotOf(name);
+    if (slot < 0) return false;
+    int row = slots[slot] - 1;
+    clearSlot(slot);
+
+    int last = --size;
+    if (row != last) {
+      names[row] = names[last];
+      hashes[row] = hashes[last];
+      totals[row] = totals[last];
+      available[row] = available[last];
+      freeRuns[row] = freeRuns[last];
+      sections[row] = sections[last];
+      slots[slotOf(names[row])] = row + 1;
+    }
+    names[last] = null;
+    freeRuns[last] = null;
+    sections[last] = null;
+    return true;
+  }
+
+  // Every event with the number of tickets left
+  void forEach(ObjIntConsumer<String> action) {
+    for (int row = 0; row < size; row++) {
+      action.accept(names[row], available[row]);
+    }
+  }
+
+  private int row(String name) {
+    int row = find(name);
+    if (row < 0) throw new IllegalArgumentException("No event " + name);
+    return row;
+  }
+
+  private int find(String name) {
+    int slot = slotOf(name);
+    return slot < 0 ? -1 : slots[slot] - 1;
+  }
+
+  // The slot of the row of name, or -(free slot) - 1
+  private int slotOf(String name) {
+    int hash = spread(name.hashCode());
+    int i = hash & mask;
+    while (true) {
+      int row = slots[i] - 1;
+      if (row < 0) return -i - 1;
+      if (hashes[row] == hash && names[row].equals(name)) return i;
+      i = (i + 1) & mask;
+    }
+  }
+
+  // Empties a slot, moving back the rows after it that could not be in their own slot
+  private void clearSlot(int i) {
+    int j = i;
+    while (true) {
+      slots[i] = 0;
+      int home;
+      do {
+        j = (j + 1) & mask;
+        if (slots[j] == 0) return;
+        home = hashes[slots[j] - 1] & mask;
+      } while (i <= j ? i < home && home <= j : i < home || home <= j);
+      slots[i] = slots[j];
+      i = j;
+    }
+  }
+
+  private void grow() {
+    int capacity = names.length * 2;
+    names = Arrays.copyOf(names, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    totals = Arrays.copyOf(totals, capacity);
+    available = Arrays.copyOf(available, capacity);
+    freeRuns = Arrays.copyOf(freeRuns, capacity);
+    sections = Arrays.copyOf(sections, capacity);
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    mask = capacity - 1;
+    for (int row = 0; row < size; row++) {
+      int i = hashes[row] & mask;
+      while (slots[i] != 0) i = (i + 1) & mask;
+      slots[i] = row + 1;
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
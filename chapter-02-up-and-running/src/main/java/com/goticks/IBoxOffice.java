@@ -3,16 +3,27 @@ package com.goticks;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 interface IBoxOffice {
 
   class CreateEvent extends AbstractMessage {
     private final String name;
     private final int tickets;
+    private final List<Section> sections;
 
+    // General admission
     public CreateEvent(String name, int tickets) {
       this.name = name;
       this.tickets = tickets;
+      this.sections = Collections.emptyList();
+    }
+
+    // Seated, the sections and their rows from best to worst
+    public CreateEvent(String name, List<Section> sections) {
+      this.name = name;
+      this.tickets = sections.stream().mapToInt(Section::getSeats).sum();
+      this.sections = Collections.unmodifiableList(new ArrayList<>(sections));
     }
 
     public String getName() {
@@ -22,6 +33,46 @@ interface IBoxOffice {
     public int getTickets() {
       return tickets;
     }
+
+    public List<Section> getSections() {
+      return sections;
+    }
+  }
+
+  // Several events at once, answered with EventResponses in the same order
+  class CreateEvents extends AbstractMessage {
+    private final List<CreateEvent> events;
+
+    public CreateEvents(List<CreateEvent> events) {
+      this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    public List<CreateEvent> getEvents() {
+      return events;
+    }
+  }
+
+  // The number of seats of each row of a section, front row first
+  class Section extends AbstractMessage {
+    private final String name;
+    private final List<Integer> rows;
+
+    public Section(String name, List<Integer> rows) {
+      this.name = name;
+      this.rows = Collections.unmodifiableList(new ArrayList<>(rows));
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public List<Integer> getRows() {
+      return rows;
+    }
+
+    public int getSeats() {
+      return rows.stream().mapToInt(Integer::intValue).sum();
+    }
   }
 
   class GetEvent extends AbstractMessage {
@@ -42,8 +93,37 @@ interface IBoxOffice {
   class GetTickets extends AbstractMessage {
     private final String event;
     private final int tickets;
+    private final String idempotencyKey;
 
     public GetTickets(String event, int tickets) {
+      this(event, tickets, null);
+    }
+
+    // A purchase with the key of an earlier one gets its Tickets instead of buying again
+    public GetTickets(String event, int tickets, String idempotencyKey) {
+      this.event = event;
+      this.tickets = tickets;
+      this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+
+    public int getTickets() {
+      return tickets;
+    }
+
+    public Optional<String> getIdempotencyKey() {
+      return Optional.ofNullable(idempotencyKey);
+    }
+  }
+
+  class HoldTickets extends AbstractMessage {
+    private final String event;
+    private final int tickets;
+
+    public HoldTickets(String event, int tickets) {
       this.event = event;
       this.tickets = tickets;
     }
@@ -55,7 +135,42 @@ interface IBoxOffice {
     public int getTickets() {
       return tickets;
     }
+  }
+
+  class ConfirmHold extends AbstractMessage {
+    private final String event;
+    private final long hold;
+
+    public ConfirmHold(String event, long hold) {
+      this.event = event;
+      this.hold = hold;
+    }
+
+    public String getEvent() {
+      return event;
+    }
 
+    public long getHold() {
+      return hold;
+    }
+  }
+
+  class ReleaseHold extends AbstractMessage {
+    private final String event;
+    private final long hold;
+
+    public ReleaseHold(String event, long hold) {
+      this.event = event;
+      this.hold = hold;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+
+    public long getHold() {
+      return hold;
+    }
   }
 
   class CancelEvent extends AbstractMessage {
@@ -117,4 +232,16 @@ interface IBoxOffice {
 
   class EventExists extends EventResponse {
   }
+
+  class EventResponses extends AbstractMessage {
+    private final List<EventResponse> responses;
+
+    public EventResponses(List<EventResponse> responses) {
+      this.responses = Collections.unmodifiableList(new ArrayList<>(responses));
+    }
+
+    public List<EventResponse> getResponses() {
+      return responses;
+    }
+  }
 }
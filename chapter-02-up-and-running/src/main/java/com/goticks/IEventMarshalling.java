@@ -1,21 +1,33 @@
 package com.goticks;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Collections;
+import java.util.List;
+
 interface IEventMarshalling {
 
+  // Either a number of tickets, or the sections of a seated event
   class EventDescription {
     private final int tickets;
+    private final List<IBoxOffice.Section> sections;
 
     @JsonCreator
-    EventDescription(@JsonProperty("tickets") int tickets) {
+    EventDescription(@JsonProperty("tickets") int tickets,
+                     @JsonProperty("sections") List<IBoxOffice.Section> sections) {
       this.tickets = tickets;
+      this.sections = sections == null ? Collections.emptyList() : sections;
     }
 
     public int getTickets() {
       return tickets;
     }
+
+    public List<IBoxOffice.Section> getSections() {
+      return sections;
+    }
   }
 
   class TicketRequest {
@@ -43,4 +55,61 @@ interface IEventMarshalling {
       return message;
     }
   }
+
+  // The outcome of a row of an import: created, exists or invalid, with why for the latter
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  class ImportResult {
+    private final long line;
+    private final String name;
+    private final String result;
+    private final String message;
+
+    ImportResult(long line, String name, String result, String message) {
+      this.line = line;
+      this.name = name;
+      this.result = result;
+      this.message = message;
+    }
+
+    public long getLine() {
+      return line;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getResult() {
+      return result;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+  }
+
+  // The last line of an import
+  class ImportSummary {
+    private final int created;
+    private final int exists;
+    private final int invalid;
+
+    ImportSummary(int created, int exists, int invalid) {
+      this.created = created;
+      this.exists = exists;
+      this.invalid = invalid;
+    }
+
+    public int getCreated() {
+      return created;
+    }
+
+    public int getExists() {
+      return exists;
+    }
+
+    public int getInvalid() {
+      return invalid;
+    }
+  }
 }
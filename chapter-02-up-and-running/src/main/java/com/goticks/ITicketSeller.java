@@ -1,5 +1,7 @@
 package com.goticks;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -18,16 +20,72 @@ interface ITicketSeller {
     }
   }
 
+  // Starts a seller again where the previous one stopped, only the given runs of tickets free
+  class Restore extends AbstractMessage {
+    private final List<Ticket> tickets;
+    private final int[] freeRuns;
+
+    public Restore(List<Ticket> tickets, int[] freeRuns) {
+      this.tickets = Collections.unmodifiableList(new ArrayList<>(tickets));
+      this.freeRuns = freeRuns;
+    }
+
+    public List<Ticket> getTickets() {
+      return tickets;
+    }
+
+    // [first, count, first, count, ...] by position, null when all are free
+    public int[] getFreeRuns() {
+      return freeRuns;
+    }
+  }
+
+  // General admission tickets have no seat
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   class Ticket extends AbstractMessage {
     private final int id;
+    private final Seat seat;
 
     public Ticket(int id) {
+      this(id, null);
+    }
+
+    public Ticket(int id, Seat seat) {
       this.id = id;
+      this.seat = seat;
     }
 
     public int getId() {
       return id;
     }
+
+    public Seat getSeat() {
+      return seat;
+    }
+  }
+
+  class Seat extends AbstractMessage {
+    private final String section;
+    private final int row;
+    private final int number;
+
+    public Seat(String section, int row, int number) {
+      this.section = section;
+      this.row = row;
+      this.number = number;
+    }
+
+    public String getSection() {
+      return section;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public int getNumber() {
+      return number;
+    }
   }
 
   class Tickets extends AbstractMessage {
@@ -65,6 +123,155 @@ interface ITicketSeller {
     }
   }
 
+  // Sets tickets aside until they are confirmed, released or the hold expires
+  class Hold extends AbstractMessage {
+    private final int tickets;
+
+    public Hold(int tickets) {
+      this.tickets = tickets;
+    }
+
+    public int getTickets() {
+      return tickets;
+    }
+  }
+
+  // Reply to Hold, without entries when there are not enough tickets left
+  class Held extends Tickets {
+    private final long hold;
+
+    public Held(String event, long hold, List<Ticket> entries) {
+      super(event, entries);
+      this.hold = hold;
+    }
+
+    public Held(String event) {
+      super(event);
+      this.hold = 0;
+    }
+
+    public long getHold() {
+      return hold;
+    }
+  }
+
+  // Buys the held tickets, answered with empty Tickets once the hold has expired
+  class Confirm extends AbstractMessage {
+    private final long hold;
+
+    public Confirm(long hold) {
+      this.hold = hold;
+    }
+
+    public long getHold() {
+      return hold;
+    }
+  }
+
+  // Puts the held tickets back on sale, answered with the Tickets released
+  class Release extends AbstractMessage {
+    private final long hold;
+
+    public Release(long hold) {
+      this.hold = hold;
+    }
+
+    public long getHold() {
+      return hold;
+    }
+  }
+
+  // Published on the event stream when expired holds put their tickets back
+  class HoldsExpired extends AbstractMessage {
+    private final String event;
+    private final int tickets;
+
+    public HoldsExpired(String event, int tickets) {
+      this.event = event;
+      this.tickets = tickets;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+
+    public int getTickets() {
+      return tickets;
+    }
+  }
+
+  // Published on the event stream each time the number of tickets on sale changes
+  class Remaining extends AbstractMessage {
+    private final String event;
+    private final int tickets;
+
+    public Remaining(String event, int tickets) {
+      this.event = event;
+      this.tickets = tickets;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+
+    public int getTickets() {
+      return tickets;
+    }
+  }
+
+  // Sent to the BoxOffice by a seller that received nothing for the idle timeout
+  class Idle extends AbstractMessage {
+    private final String event;
+
+    public Idle(String event) {
+      this.event = event;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+  }
+
+  // Stops an idle seller, answered with Passivated, or Busy if it has holds by then
+  class Passivate extends AbstractMessage {
+  }
+
+  class Passivated extends AbstractMessage {
+    private final String event;
+    private final int tickets;
+    private final int[] freeRuns;
+
+    public Passivated(String event, int tickets, int[] freeRuns) {
+      this.event = event;
+      this.tickets = tickets;
+      this.freeRuns = freeRuns;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+
+    public int getTickets() {
+      return tickets;
+    }
+
+    public int[] getFreeRuns() {
+      return freeRuns;
+    }
+  }
+
+  class Busy extends AbstractMessage {
+    private final String event;
+
+    public Busy(String event) {
+      this.event = event;
+    }
+
+    public String getEvent() {
+      return event;
+    }
+  }
+
   class GetEvent extends AbstractMessage {
   }
 
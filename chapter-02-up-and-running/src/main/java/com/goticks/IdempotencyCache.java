@@ -0,0 +1,91 @@
+package com.goticks;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * The results of requests sent with an Idempotency-Key, so that a retry gets the result
+ * of the first request instead of running it again.
+ *
+ * A duplicate sent while the first request is running waits for the same result. Results
+ * are kept for at most ttl, and at most maxEntries of them, the oldest going first. A
+ * request that fails is forgotten, so that it can be retried.
+ */
+class IdempotencyCache<V> {
+
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>();
+
+  private static class Entry<V> {
+    private final Object request;
+    private final long created;
+    private final CompletableFuture<V> result = new CompletableFuture<>();
+
+    private Entry(Object request, long created) {
+      this.request = request;
+      this.created = created;
+    }
+  }
+
+  IdempotencyCache(int maxEntries, Duration ttl) {
+    this.maxEntries = maxEntries;
+    this.ttlNanos = ttl.toNanos();
+  }
+
+  /**
+   * The result of the request first sent with key, or of a new one started now. Empty when
+   * the key was first used for a different request.
+   */
+  Optional<CompletionStage<V>> attach(String key, Object request, Supplier<CompletionStage<V>> start) {
+    Entry<V> entry;
+    synchronized (this) {
+      long now = System.nanoTime();
+      evict(now);
+      Entry<V> existing = entries.get(key);
+      if (existing != null) {
+        return Objects.equals(existing.request, request) ? Optional.of(existing.result) : Optional.empty();
+      }
+      entry = new Entry<>(request, now);
+      entries.put(key, entry);
+    }
+
+    try {
+      start.get().whenComplete((value, failure) -> {
+        if (failure != null) fail(key, entry, failure);
+        else entry.result.complete(value);
+      });
+    } catch (RuntimeException e) {
+      fail(key, entry, e);
+    }
+    return Optional.of(entry.result);
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private void fail(String key, Entry<V> entry, Throwable failure) {
+    synchronized (this) {
+      entries.remove(key, entry);
+    }
+    entry.result.completeExceptionally(failure);
+  }
+
+  // Entries are in the order they were created, so the expired ones come first
+  private void evict(long now) {
+    Iterator<Map.Entry<String, Entry<V>>> oldest = entries.entrySet().iterator();
+    while (oldest.hasNext()) {
+      Entry<V> entry = oldest.next().getValue();
+      if (entries.size() < maxEntries && now - entry.created < ttlNanos) break;
+      oldest.remove();
+    }
+  }
+}
@@ -0,0 +1,628 @@
+package com.goticks;
+
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import com.goticks.IBoxOffice.CreateEvent;
+import com.goticks.IBoxOffice.Event;
+import com.goticks.IBoxOffice.Events;
+import com.goticks.IBoxOffice.Section;
+import com.goticks.IEventMarshalling.EventDescription;
+import com.goticks.IEventMarshalling.EventError;
+import com.goticks.IEventMarshalling.ImportResult;
+import com.goticks.IEventMarshalling.ImportSummary;
+import com.goticks.IEventMarshalling.TicketRequest;
+import com.goticks.ITicketSeller.Held;
+import com.goticks.ITicketSeller.Ticket;
+import com.goticks.ITicketSeller.Tickets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSON codec of the goticks protocol, in place of the reflection-based Jackson mapping.
+ *
+ * Responses are written byte by byte into a buffer reused by each thread, and come out
+ * exactly as Jackson wrote them. The ids of consecutive tickets are counted up in ASCII
+ * rather than converted one by one. Request bodies are read in one pass, without building
+ * a tree; unknown fields are skipped and a missing "tickets" reads as 0, as with Jackson.
+ */
+final class JsonCodec {
+
+  private JsonCodec() {
+  }
+
+  private static final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+
+  static <T> Marshaller<T, RequestEntity> marshaller() {
+    return Marshaller.withFixedContentType(ContentTypes.APPLICATION_JSON,
+        (T value) -> HttpEntities.create(ContentTypes.APPLICATION_JSON, write(value)));
+  }
+
+  static Unmarshaller<HttpEntity, EventDescription> eventDescription() {
+    return Unmarshaller.forMediaType(MediaTypes.APPLICATION_JSON,
+        Unmarshaller.entityToByteString().thenApply(JsonCodec::readEventDescription));
+  }
+
+  static Unmarshaller<HttpEntity, TicketRequest> ticketRequest() {
+    return Unmarshaller.forMediaType(MediaTypes.APPLICATION_JSON,
+        Unmarshaller.entityToByteString().thenApply(bytes -> new TicketRequest(readTickets(bytes))));
+  }
+
+  static ByteString write(Object value) {
+    Writer writer = writers.get();
+    writer.reset();
+    if (value instanceof Event) {
+      writer.event((Event) value);
+    } else if (value instanceof Events) {
+      writer.events((Events) value);
+    } else if (value instanceof Held) {
+      writer.held((Held) value);
+    } else if (value instanceof Tickets) {
+      writer.tickets((Tickets) value);
+    } else if (value instanceof EventError) {
+      writer.error((EventError) value);
+    } else if (value instanceof ImportResult) {
+      writer.importResult((ImportResult) value);
+    } else if (value instanceof ImportSummary) {
+      writer.importSummary((ImportSummary) value);
+    } else {
+      throw new IllegalArgumentException("No JSON codec for " + value.getClass().getName());
+    }
+    return writer.result();
+  }
+
+  // The "tickets" count of a TicketRequest
+  static int readTickets(ByteString json) {
+    return new Reader(json).ticketsObject();
+  }
+
+  static EventDescription readEventDescription(ByteString json) {
+    return new Reader(json).eventDescription();
+  }
+
+  // An event of an import, {"name": "RHCP", "tickets": 10} or with sections
+  static CreateEvent readCreateEvent(ByteString json) {
+    return new Reader(json).createEvent();
+  }
+
+  private static final class Writer {
+    private static final int INITIAL_SIZE = 1024;
+    private static final int MAX_KEPT_SIZE = 1024 * 1024;
+
+    private static final byte[] NAME = ascii("{\"name\":");
+    private static final byte[] TICKETS = ascii(",\"tickets\":");
+    private static final byte[] EVENTS = ascii("{\"events\":[");
+    private static final byte[] ENTRIES = ascii("{\"entries\":[");
+    private static final byte[] EVENT = ascii("],\"event\":");
+    private static final byte[] HOLD = ascii(",\"hold\":");
+    private static final byte[] ID = ascii("{\"id\":");
+    private static final byte[] SEAT = ascii(",\"seat\":{\"number\":");
+    private static final byte[] ROW = ascii(",\"row\":");
+    private static final byte[] SECTION = ascii(",\"section\":");
+    private static final byte[] MESSAGE = ascii("{\"message\":");
+    private static final byte[] LINE = ascii("{\"line\":");
+    private static final byte[] LINE_MESSAGE = ascii(",\"message\":");
+    private static final byte[] LINE_NAME = ascii(",\"name\":");
+    private static final byte[] RESULT = ascii(",\"result\":");
+    private static final byte[] CREATED = ascii("{\"created\":");
+    private static final byte[] EXISTS = ascii(",\"exists\":");
+    private static final byte[] INVALID = ascii(",\"invalid\":");
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int size = 0;
+    private final byte[] digits = new byte[11];
+
+    void reset() {
+      if (buffer.length > MAX_KEPT_SIZE) buffer = new byte[INITIAL_SIZE];
+      size = 0;
+    }
+
+    ByteString result() {
+      return ByteString.fromArray(buffer, 0, size);
+    }
+
+    void event(Event event) {
+      raw(NAME);
+      string(event.getName());
+      raw(TICKETS);
+      integer(event.getTickets());
+      raw('}');
+    }
+
+    void events(Events events) {
+      raw(EVENTS);
+      List<Event> list = events.getEvents();
+      for (int i = 0; i < list.size(); i++) {
+        if (i > 0) raw(',');
+        event(list.get(i));
+      }
+      raw(']');
+      raw('}');
+    }
+
+    void tickets(Tickets tickets) {
+      entries(tickets);
+      raw('}');
+    }
+
+    void held(Held held) {
+      entries(held);
+      raw(HOLD);
+      raw(ascii(Long.toString(held.getHold())));
+      raw('}');
+    }
+
+    // The entries and event fields, without the closing brace
+    private void entries(Tickets tickets) {
+      raw(ENTRIES);
+      List<Ticket> entries = tickets.getEntries();
+      int i = 0;
+      while (i < entries.size()) {
+        if (entries.get(i).getSeat() != null) {
+          seated(entries.get(i), i > 0);
+          i++;
+          continue;
+        }
+        // A run of consecutive ids is written by counting up the digits of the first one
+        int first = entries.get(i).getId();
+        int run = 1;
+        while (i + run < entries.size() && first <= Integer.MAX_VALUE - run
+            && entries.get(i + run).getId() == first + run && entries.get(i + run).getSeat() == null) {
+          run++;
+        }
+        ticketRun(first, run, i > 0);
+        i += run;
+      }
+      raw(EVENT);
+      string(tickets.getEvent());
+    }
+
+    void error(EventError error) {
+      raw(MESSAGE);
+      string(error.getMessage());
+      raw('}');
+    }
+
+    void importResult(ImportResult result) {
+      raw(LINE);
+      raw(ascii(Long.toString(result.getLine())));
+      if (result.getMessage() != null) {
+        raw(LINE_MESSAGE);
+        string(result.getMessage());
+      }
+      if (result.getName() != null) {
+        raw(LINE_NAME);
+        string(result.getName());
+      }
+      raw(RESULT);
+      string(result.getResult());
+      raw('}');
+    }
+
+    void importSummary(ImportSummary summary) {
+      raw(CREATED);
+      integer(summary.getCreated());
+      raw(EXISTS);
+      integer(summary.getExists());
+      raw(INVALID);
+      integer(summary.getInvalid());
+      raw('}');
+    }
+
+    private void seated(Ticket ticket, boolean comma) {
+      if (comma) raw(',');
+      raw(ID);
+      integer(ticket.getId());
+      raw(SEAT);
+      integer(ticket.getSeat().getNumber());
+      raw(ROW);
+      integer(ticket.getSeat().getRow());
+      raw(SECTION);
+      string(ticket.getSeat().getSection());
+      raw('}');
+      raw('}');
+    }
+
+    private void ticketRun(int first, int count, boolean comma) {
+      int start = toDigits(first);
+      for (int n = 0; n < count; n++) {
+        if (comma || n > 0) raw(',');
+        raw(ID);
+        ensure(digits.length - start);
+        System.arraycopy(digits, start, buffer, size, digits.length - start);
+        size += digits.length - start;
+        raw('}');
+        start = increment(start);
+      }
+    }
+
+    // Writes the digits of a positive value at the end of digits, returns where they start
+    private int toDigits(int value) {
+      if (value < 0) throw new IllegalArgumentException("Ticket ids are positive: " + value);
+      int start = digits.length;
+      do {
+        digits[--start] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      return start;
+    }
+
+    // Adds one to the digits, carrying into a new leading digit if needed
+    private int increment(int start) {
+      int i = digits.length - 1;
+      while (i >= start && digits[i] == '9') {
+        digits[i--] = '0';
+      }
+      if (i >= start) {
+        digits[i]++;
+        return start;
+      }
+      digits[start - 1] = '1';
+      return start - 1;
+    }
+
+    private void integer(int value) {
+      if (value == Integer.MIN_VALUE) {
+        raw(ascii(Integer.toString(value)));
+        return;
+      }
+      if (value < 0) {
+        raw('-');
+        value = -value;
+      }
+      int start = toDigits(value);
+      ensure(digits.length - start);
+      System.arraycopy(digits, start, buffer, size, digits.length - start);
+      size += digits.length - start;
+    }
+
+    private void string(String value) {
+      if (value == null) {
+        raw(ascii("null"));
+        return;
+      }
+      ensure(value.length() * 6 + 2);
+      buffer[size++] = '"';
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+          buffer[size++] = '\\';
+          buffer[size++] = (byte) c;
+        } else if (c < 0x20) {
+          escapeControl(c);
+        } else if (c < 0x80) {
+          buffer[size++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[size++] = (byte) (0xc0 | (c >> 6));
+          buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, value.charAt(++i));
+          buffer[size++] = (byte) (0xf0 | (cp >> 18));
+          buffer[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+          buffer[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+          buffer[size++] = (byte) (0x80 | (cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          buffer[size++] = '?';
+        } else {
+          buffer[size++] = (byte) (0xe0 | (c >> 12));
+          buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      buffer[size++] = '"';
+    }
+
+    private void escapeControl(char c) {
+      buffer[size++] = '\\';
+      switch (c) {
+        case '\n': buffer[size++] = 'n'; break;
+        case '\r': buffer[size++] = 'r'; break;
+        case '\t': buffer[size++] = 't'; break;
+        case '\b': buffer[size++] = 'b'; break;
+        case '\f': buffer[size++] = 'f'; break;
+        default:
+          buffer[size++] = 'u';
+          buffer[size++] = '0';
+          buffer[size++] = '0';
+          buffer[size++] = HEX[c >> 4];
+          buffer[size++] = HEX[c & 0xf];
+      }
+    }
+
+    private void raw(byte[] bytes) {
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    private void raw(char c) {
+      ensure(1);
+      buffer[size++] = (byte) c;
+    }
+
+    private void ensure(int more) {
+      if (size + more > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + more));
+      }
+    }
+
+    private static byte[] ascii(String s) {
+      return s.getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  // Reads {"tickets": n} objects, event descriptions and imported events, skipping any other field
+  private static final class Reader {
+    private final ByteString json;
+    private int pos = 0;
+
+    Reader(ByteString json) {
+      this.json = json;
+    }
+
+    int ticketsObject() {
+      int tickets = 0;
+      expect('{');
+      if (peek() == '}') {
+        pos++;
+      } else {
+        do {
+          String key = string();
+          expect(':');
+          if ("tickets".equals(key)) {
+            tickets = integer();
+          } else {
+            skipValue();
+          }
+        } while (comma('}'));
+      }
+      if (skipWhitespace() < json.size()) throw error("trailing data");
+      return tickets;
+    }
+
+    EventDescription eventDescription() {
+      int tickets = 0;
+      List<Section> sections = null;
+      expect('{');
+      if (peek() == '}') {
+        pos++;
+      } else {
+        do {
+          String key = string();
+          expect(':');
+          if ("tickets".equals(key)) {
+            tickets = integer();
+          } else if ("sections".equals(key)) {
+            sections = sections();
+          } else {
+            skipValue();
+          }
+        } while (comma('}'));
+      }
+      if (skipWhitespace() < json.size()) throw error("trailing data");
+      return new EventDescription(tickets, sections);
+    }
+
+    CreateEvent createEvent() {
+      String name = null;
+      int tickets = 0;
+      List<Section> sections = null;
+      expect('{');
+      if (peek() == '}') {
+        pos++;
+      } else {
+        do {
+          String key = string();
+          expect(':');
+          if ("name".equals(key)) {
+            name = string();
+          } else if ("tickets".equals(key)) {
+            tickets = integer();
+          } else if ("sections".equals(key)) {
+            sections = sections();
+          } else {
+            skipValue();
+          }
+        } while (comma('}'));
+      }
+      if (skipWhitespace() < json.size()) throw error("trailing data");
+      if (name == null) throw error("name expected");
+      return sections == null ? new CreateEvent(name, tickets) : new CreateEvent(name, sections);
+    }
+
+    // [{"name": "A", "rows": [20, 22]}, ...]
+    private List<Section> sections() {
+      List<Section> sections = new ArrayList<>();
+      expect('[');
+      if (peek() == ']') {
+        pos++;
+        return sections;
+      }
+      do {
+        String name = "";
+        List<Integer> rows = new ArrayList<>();
+        expect('{');
+        if (peek() == '}') {
+          pos++;
+        } else {
+          do {
+            String key = string();
+            expect(':');
+            if ("name".equals(key)) {
+              name = string();
+            } else if ("rows".equals(key)) {
+              expect('[');
+              if (peek() == ']') {
+                pos++;
+              } else {
+                do {
+                  int seats = integer();
+                  if (seats < 0) throw error("negative number of seats");
+                  rows.add(seats);
+                } while (comma(']'));
+              }
+            } else {
+              skipValue();
+            }
+          } while (comma('}'));
+        }
+        sections.add(new Section(name, rows));
+      } while (comma(']'));
+      return sections;
+    }
+
+    // True after a comma, false after the closing character
+    private boolean comma(char close) {
+      char c = next();
+      if (c == ',') return true;
+      if (c == close) return false;
+      throw error("',' or '" + close + "' expected");
+    }
+
+    private int integer() {
+      skipWhitespace();
+      boolean negative = false;
+      if (pos < json.size() && json.apply(pos) == '-') {
+        negative = true;
+        pos++;
+      }
+      int start = pos;
+      long value = 0;
+      while (pos < json.size() && json.apply(pos) >= '0' && json.apply(pos) <= '9') {
+        value = value * 10 + (json.apply(pos++) - '0');
+        if (value > Integer.MAX_VALUE + 1L) throw error("integer too large");
+      }
+      if (pos == start) throw error("integer expected");
+      if (pos < json.size() && (json.apply(pos) == '.' || json.apply(pos) == 'e' || json.apply(pos) == 'E')) {
+        throw error("integer expected");
+      }
+      value = negative ? -value : value;
+      if (value > Integer.MAX_VALUE) throw error("integer too large");
+      return (int) value;
+    }
+
+    private String string() {
+      expect('"');
+      StringBuilder sb = null;
+      int start = pos;
+      while (true) {
+        if (pos >= json.size()) throw error("unterminated string");
+        byte b = json.apply(pos);
+        if (b == '"') {
+          String s = sb == null ? utf8(start, pos) : sb.append(utf8(start, pos)).toString();
+          pos++;
+          return s;
+        }
+        if (b == '\\') {
+          if (sb == null) sb = new StringBuilder();
+          sb.append(utf8(start, pos));
+          pos++;
+          sb.append(escaped());
+          start = pos;
+        } else {
+          pos++;
+        }
+      }
+    }
+
+    private char escaped() {
+      if (pos >= json.size()) throw error("unterminated string");
+      char c = (char) json.apply(pos++);
+      switch (c) {
+        case '"': case '\\': case '/': return c;
+        case 'n': return '\n';
+        case 'r': return '\r';
+        case 't': return '\t';
+        case 'b': return '\b';
+        case 'f': return '\f';
+        case 'u':
+          if (pos + 4 > json.size()) throw error("bad unicode escape");
+          int cp = 0;
+          for (int i = 0; i < 4; i++) {
+            int digit = Character.digit((char) json.apply(pos++), 16);
+            if (digit < 0) throw error("bad unicode escape");
+            cp = cp * 16 + digit;
+          }
+          return (char) cp;
+        default:
+          throw error("bad escape");
+      }
+    }
+
+    private void skipValue() {
+      char c = peek();
+      if (c == '"') {
+        string();
+      } else if (c == '{') {
+        pos++;
+        if (peek() == '}') {
+          pos++;
+          return;
+        }
+        do {
+          string();
+          expect(':');
+          skipValue();
+        } while (comma('}'));
+      } else if (c == '[') {
+        pos++;
+        if (peek() == ']') {
+          pos++;
+          return;
+        }
+        do {
+          skipValue();
+        } while (comma(']'));
+      } else {
+        // Number, true, false or null
+        int start = pos;
+        while (pos < json.size() && "+-.0123456789eEtruefalsn".indexOf(json.apply(pos)) >= 0) {
+          pos++;
+        }
+        if (pos == start) throw error("value expected");
+      }
+    }
+
+    private String utf8(int from, int to) {
+      return json.slice(from, to).decodeString(StandardCharsets.UTF_8);
+    }
+
+    private void expect(char c) {
+      if (next() != c) throw error("'" + c + "' expected");
+    }
+
+    private char next() {
+      char c = peek();
+      pos++;
+      return c;
+    }
+
+    private char peek() {
+      if (skipWhitespace() >= json.size()) throw error("unexpected end");
+      return (char) json.apply(pos);
+    }
+
+    private int skipWhitespace() {
+      while (pos < json.size()) {
+        byte b = json.apply(pos);
+        if (b != ' ' && b != '\t' && b != '\n' && b != '\r') break;
+        pos++;
+      }
+      return pos;
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException("Malformed JSON at " + pos + ": " + message);
+    }
+  }
+}
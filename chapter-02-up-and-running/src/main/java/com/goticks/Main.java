@@ -18,8 +18,6 @@ import com.typesafe.config.ConfigFactory;
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
 
-import static java.time.Duration.ofSeconds;
-
 public class Main {
 
   public static void main(String[] args) throws IOException {
@@ -35,7 +33,7 @@ public class Main {
     final Http http = Http$.MODULE$.get(system);
     final ActorMaterializer materializer = ActorMaterializer.create(system);
 
-    RestApi app = new RestApi(system, ofSeconds(5));
+    RestApi app = new RestApi(system, config.getDuration("goticks.ask-timeout"));
 
     final Flow<HttpRequest, HttpResponse, NotUsed> routeFlow = app.createRoute().flow(system, materializer);
     final CompletionStage<ServerBinding> binding = http.bindAndHandle(routeFlow,
@@ -0,0 +1,112 @@
+package com.goticks;
+
+import com.typesafe.config.Config;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets of the clients of each route, set by goticks.rate-limits.
+ *
+ * A bucket holds burst tokens and gets rate of them back per second. It is kept as the one
+ * long of the equivalent cell rate algorithm, the time at which it will be full again,
+ * and taking a token is a compare-and-set on it, so clients never wait on each other.
+ * Buckets are spread over stripes of at most max-clients / stripes clients each. A stripe
+ * that is full first drops its full buckets, which lose nothing since a new bucket starts
+ * full, then, if every client is active, drops some of them anyway.
+ */
+final class RateLimiter {
+
+  private static final int STRIPES = 16;
+
+  private final Limit defaultLimit;
+  private final Map<String, Limit> limits = new HashMap<>();
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  private static final class Limit {
+    private final long interval;    // Nanoseconds per token
+    private final long tolerance;   // How far ahead of now the bucket may run, burst - 1 tokens
+
+    private Limit(Config config) {
+      double rate = config.getDouble("rate");
+      int burst = config.getInt("burst");
+      if (rate <= 0 || burst < 1) throw new IllegalArgumentException("Bad rate limit: " + config.root().render());
+      this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+      this.tolerance = interval * (burst - 1);
+    }
+  }
+
+  RateLimiter(Config config) {
+    defaultLimit = new Limit(config.getConfig("default"));
+    Config routes = config.getConfig("routes");
+    for (String route : routes.root().keySet()) {
+      limits.put(route, new Limit(routes.getConfig(route)));
+    }
+    int perStripe = Math.max(1, config.getInt("max-clients") / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(perStripe);
+    }
+  }
+
+  /**
+   * Takes a token of client for route. Returns 0 if there was one, otherwise the
+   * nanoseconds until there is.
+   */
+  long acquire(String route, String client) {
+    Limit limit = limits.getOrDefault(route, defaultLimit);
+    String key = route + ' ' + client;
+    int hash = key.hashCode();
+    Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+
+    long now = System.nanoTime();
+    AtomicLong bucket = stripe.bucket(key, now);
+    while (true) {
+      long full = bucket.get();
+      long start = Math.max(full, now);
+      if (start - now > limit.tolerance) {
+        return start - now - limit.tolerance;
+      }
+      if (bucket.compareAndSet(full, start + limit.interval)) {
+        return 0;
+      }
+    }
+  }
+
+  int clients() {
+    int clients = 0;
+    for (Stripe stripe : stripes) {
+      clients += stripe.buckets.size();
+    }
+    return clients;
+  }
+
+  private static final class Stripe {
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final int maxClients;
+
+    private Stripe(int maxClients) {
+      this.maxClients = maxClients;
+    }
+
+    AtomicLong bucket(String key, long now) {
+      AtomicLong bucket = buckets.get(key);
+      if (bucket != null) return bucket;
+      if (buckets.size() >= maxClients) evict(now);
+      return buckets.computeIfAbsent(key, __ -> new AtomicLong(now));
+    }
+
+    // Down to 3/4 of the stripe, so that the next sweep is some new clients away
+    private void evict(long now) {
+      buckets.values().removeIf(bucket -> bucket.get() <= now);
+      Iterator<AtomicLong> active = buckets.values().iterator();
+      while (buckets.size() > maxClients * 3 / 4 && active.hasNext()) {
+        active.next();
+        active.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.goticks;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.goticks.ITicketSeller.Remaining;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fans the {@link Remaining} counts published by the TicketSellers out to client streams.
+ *
+ * A single actor source, subscribed to the event stream, feeds a BroadcastHub. Each client
+ * stream keeps the events it watches and conflates them per event, so a client that reads
+ * slowly gets the latest count of each event instead of every change, and never holds the
+ * hub back.
+ */
+final class RemainingHub {
+
+  private static final int BUFFER_SIZE = 1024;
+  private static final int HUB_BUFFER_SIZE = 256;
+
+  private final Source<Remaining, NotUsed> hub;
+
+  RemainingHub(ActorSystem system, Materializer materializer) {
+    Pair<ActorRef, Source<Remaining, NotUsed>> published = Source.<Remaining>actorRef(BUFFER_SIZE, OverflowStrategy.dropHead())
+        .toMat(BroadcastHub.of(Remaining.class, HUB_BUFFER_SIZE), Keep.both())
+        .run(materializer);
+    system.eventStream().subscribe(published.first(), Remaining.class);
+    hub = published.second();
+    // Keeps the hub moving while no client watches, so a new client never starts with old counts
+    hub.runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * The counts of the given events, starting with the snapshots unless a change of the
+   * same event came first.
+   */
+  Source<Remaining, NotUsed> watch(Set<String> events, Source<Remaining, ?> snapshots) {
+    Source<Pair<Boolean, Remaining>, NotUsed> live = hub
+        .filter(remaining -> events.contains(remaining.getEvent()))
+        .map(remaining -> Pair.create(true, remaining));
+
+    return live
+        .merge(snapshots.map(remaining -> Pair.create(false, remaining)))
+        .statefulMapConcat(() -> {
+          Set<String> changed = new HashSet<>();
+          return update -> {
+            String event = update.second().getEvent();
+            if (update.first()) changed.add(event);
+            else if (changed.contains(event)) return new ArrayList<>();
+            ArrayList<Remaining> counts = new ArrayList<>(1);
+            counts.add(update.second());
+            return counts;
+          };
+        })
+        .conflateWithSeed(RemainingHub::latest, (latest, remaining) -> {
+          latest.remove(remaining.getEvent());
+          latest.put(remaining.getEvent(), remaining);
+          return latest;
+        })
+        .mapConcat(latest -> new ArrayList<>(latest.values()));
+  }
+
+  private static Map<String, Remaining> latest(Remaining remaining) {
+    Map<String, Remaining> latest = new LinkedHashMap<>();
+    latest.put(remaining.getEvent(), remaining);
+    return latest;
+  }
+}
@@ -0,0 +1,153 @@
+package com.goticks;
+
+import akka.actor.AbstractActor;
+import akka.actor.Props;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.util.ByteString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The JSON bodies of the GET responses, serialized and gzipped once per version.
+ *
+ * Every cached resource (the catalog, or one event) has a version, changed by
+ * {@link #invalidate(String)} before and after each change. A body is only cached under
+ * the version read before asking the BoxOffice, so a response built from a state older
+ * than the last change never makes it into the cache. Versions come from one clock that
+ * ticks on every change: a resource keeps the version of its cached body until it
+ * changes, and one without a body is at the time of the clock, later than any version it
+ * had. So only the last maxEntries bodies read are kept, with their versions, and nothing
+ * is kept for the resources that change without being read.
+ *
+ * The ETag is the version, prefixed with the start time of the cache so that ETags from
+ * before a restart never match, and suffixed with -gz for the gzipped body. Holds that
+ * expire change an event without any request, the {@link #invalidator} learns about them
+ * from the event stream.
+ */
+class ResponseCache {
+
+  static final String CATALOG = "";
+
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  private final int maxEntries;
+  private long clock = 0;
+  // In access order, the least recently read first
+  private final LinkedHashMap<String, Body> bodies = new LinkedHashMap<String, Body>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Body> eldest) {
+      return size() > maxEntries;
+    }
+  };
+
+  ResponseCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  static class Body {
+    private final long version;
+    private final EntityTag etag;
+    private final EntityTag gzipEtag;
+    private final ByteString json;
+    private final ByteString gzip;
+
+    private Body(long version, EntityTag etag, EntityTag gzipEtag, ByteString json, ByteString gzip) {
+      this.version = version;
+      this.etag = etag;
+      this.gzipEtag = gzipEtag;
+      this.json = json;
+      this.gzip = gzip;
+    }
+
+    EntityTag getEtag() {
+      return etag;
+    }
+
+    EntityTag getGzipEtag() {
+      return gzipEtag;
+    }
+
+    ByteString getJson() {
+      return json;
+    }
+
+    ByteString getGzip() {
+      return gzip;
+    }
+  }
+
+  synchronized long version(String key) {
+    Body body = bodies.get(key);
+    return body != null ? body.version : clock;
+  }
+
+  // The cached body of the current version, if any
+  synchronized Optional<Body> get(String key) {
+    return Optional.ofNullable(bodies.get(key));
+  }
+
+  synchronized int size() {
+    return bodies.size();
+  }
+
+  /**
+   * Serializes the value read at the given version. The body is cached unless the
+   * resource changed in the meantime, and returned in both cases.
+   */
+  Body put(String key, long version, Object value) {
+    Body body = serialize(version, value);
+    synchronized (this) {
+      if (version(key) == version) {
+        bodies.put(key, body);
+      }
+    }
+    return body;
+  }
+
+  // The event and the catalog that lists it change
+  synchronized void invalidate(String event) {
+    clock++;
+    bodies.remove(event);
+    bodies.remove(CATALOG);
+  }
+
+  static Props invalidator(ResponseCache cache) {
+    return Props.create(Invalidator.class, () -> new Invalidator(cache));
+  }
+
+  private Body serialize(long version, Object value) {
+    try {
+      ByteString json = JsonCodec.write(value);
+      ByteArrayOutputStream gzip = new ByteArrayOutputStream(json.size());
+      try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+        out.write(json.toArray());
+      }
+      String tag = epoch + "-" + version;
+      return new Body(version, EntityTag.create(tag, false), EntityTag.create(tag + "-gz", false),
+          json, ByteString.fromArray(gzip.toByteArray()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Subscribed to ITicketSeller.HoldsExpired
+  private static class Invalidator extends AbstractActor {
+    private final ResponseCache cache;
+
+    private Invalidator(ResponseCache cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+          .match(ITicketSeller.HoldsExpired.class, expired -> cache.invalidate(expired.getEvent()))
+          .build();
+    }
+  }
+}
@@ -1,47 +1,121 @@
 package com.goticks;
 
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.AcceptEncoding;
+import akka.http.javadsl.model.headers.ContentEncoding;
+import akka.http.javadsl.model.headers.HttpEncodingRange;
+import akka.http.javadsl.model.headers.HttpEncodings;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RemoteAddress;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.Route;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.goticks.IBoxOffice.*;
 import com.goticks.IEventMarshalling.*;
+import com.typesafe.config.Config;
 import io.vavr.control.Option;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-import static akka.http.javadsl.marshallers.jackson.Jackson.marshaller;
 import static akka.http.javadsl.model.StatusCodes.*;
+import static akka.http.javadsl.server.PathMatchers.longSegment;
 import static akka.http.javadsl.server.PathMatchers.segment;
 import static akka.pattern.PatternsCS.ask;
-import static io.vavr.control.Option.ofOptional;
+import static com.goticks.JsonCodec.marshaller;
 
 /**
  * Création d'un évènement {@link #createEvent(String)} via une requête POST
+ *
+ * Les réponses des GET sont gardées sérialisées (et gzippées) dans un {@link ResponseCache},
+ * invalidé par chaque POST ou DELETE sur l'évènement ; un GET avec un If-None-Match à jour
+ * reçoit un 304 sans passer par le BoxOffice.
+ *
+ * Les places peuvent aussi être mises de côté par un hold, puis confirmées ou rendues ;
+ * un hold ni confirmé ni rendu expire au bout de goticks.holds.timeout.
+ *
+ * Un achat envoyé avec un en-tête Idempotency-Key n'est fait qu'une fois : les essais
+ * suivants avec la même clé reçoivent les mêmes billets.
+ *
+ * Chaque route limite le débit de chaque client (goticks.rate-limits) avant tout message
+ * aux acteurs.
+ *
+ * GET /stream?events=... pousse en Server-Sent Events le nombre de billets restants des
+ * évènements suivis, au lieu de les interroger en boucle.
+ *
+ * POST /events/ importe en flux des milliers d'évènements d'un corps NDJSON ou CSV, par
+ * lots envoyés au BoxOffice, et répond ligne par ligne (goticks.import).
  */
 public class RestApi extends AllDirectives {
 
   private final Duration timeout;
   private final LoggingAdapter log;
   private final ActorRef boxOfficeActor;
+  private final ResponseCache cache;
+  private final IdempotencyCache<TicketSeller.Tickets> purchases;
+  private final RateLimiter rateLimiter;
+  private final Set<String> apiKeys;
+  private final Set<InetAddress> trustedProxies = new HashSet<>();
+  private final RemainingHub remainingHub;
+  private final EventImport eventImport;
+  private final long maxImportLength;
   private final String msg = "      📩 {}";
 
+  static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+  static final String API_KEY = "X-Api-Key";
+  static final int MAX_WATCHED = 100;
+
   RestApi(ActorSystem system, Duration timeout) {
     this.timeout = timeout;
     log = Logging.getLogger(system, this);
+    cache = new ResponseCache(system.settings().config().getInt("goticks.response-cache.max-entries"));
+    Config idempotency = system.settings().config().getConfig("goticks.idempotency");
+    purchases = new IdempotencyCache<>(idempotency.getInt("max-entries"), idempotency.getDuration("ttl"));
+    Config rateLimits = system.settings().config().getConfig("goticks.rate-limits");
+    rateLimiter = new RateLimiter(rateLimits);
+    apiKeys = new HashSet<>(rateLimits.getStringList("api-keys"));
+    for (String proxy : rateLimits.getStringList("trusted-proxies")) {
+      try {
+        trustedProxies.add(InetAddress.getByName(proxy));
+      } catch (UnknownHostException e) {
+        throw new IllegalArgumentException("Unknown trusted proxy: " + proxy, e);
+      }
+    }
     boxOfficeActor = system.actorOf(BoxOffice.props(timeout), "boxOfficeActor");
+    system.eventStream().subscribe(system.actorOf(ResponseCache.invalidator(cache)), ITicketSeller.HoldsExpired.class);
+    remainingHub = new RemainingHub(system, ActorMaterializer.create(system));
+    Config imports = system.settings().config().getConfig("goticks.import");
+    eventImport = new EventImport(boxOfficeActor, timeout, imports);
+    maxImportLength = imports.getBytes("max-content-length");
   }
 
   public Route createRoute() {
     return route(
         pathPrefix("events", () -> route(
             getEvents(),
+            importEvents(),
             pathPrefix(segment(), (String name) -> route(
                 getEvent(name),
                 createEvent(name),
@@ -49,26 +123,29 @@ public class RestApi extends AllDirectives {
             )),
             pathPrefix(segment().slash(segment("tickets")), (String event) -> route(
                 requestTickets(event)
+            )),
+            pathPrefix(segment().slash(segment("holds")), (String event) -> route(
+                holdTickets(event),
+                pathPrefix(longSegment(), (Long hold) -> route(
+                    confirmHold(event, hold),
+                    releaseHold(event, hold)
+                ))
             ))
-        ))
+        )),
+        watchEvents()
     );
   }
 
   private Route getEvents() {
     // [Get all events] GET /events/
     return get(() ->
-        pathEndOrSingleSlash(() -> {
+        pathEndOrSingleSlash(() -> rateLimited("get-events", () -> {
           log.debug("---------- GET /events/ ----------");
 
-          CompletionStage<Events> events =
+          return cached(ResponseCache.CATALOG, () ->
               ask(boxOfficeActor, new GetEvents(), timeout)
-                  .thenApply((Events.class::cast));
-
-          return onSuccess(() -> events, maybeEvent -> {
-            log.debug(msg, maybeEvent);
-            return completeOK(maybeEvent, marshaller());
-          });
-        })
+                  .thenApply(obj -> Optional.of((Events) obj)));
+        }))
     );
   }
 
@@ -76,35 +153,147 @@ public class RestApi extends AllDirectives {
   private Route getEvent(String name) {
     // [Get an event] GET /events/:name/
     return pathEndOrSingleSlash(() ->
-        get(() -> {
+        get(() -> rateLimited("get-event", () -> {
           log.debug("---------- GET /events/{}/ ----------", name);
 
-          CompletionStage<Optional<Event>> futureEvent =
+          return cached(name, () ->
               ask(boxOfficeActor, new GetEvent(name), timeout)
-                  .thenApply(obj -> (Optional<Event>) obj);
+                  .thenApply(obj -> (Optional<Event>) obj));
+        }))
+    );
+  }
 
-          return onSuccess(() -> futureEvent, maybeEvent -> {
-            log.debug(msg, maybeEvent);
-            return ofOptional(maybeEvent)
-                    .fold(
-                            () -> complete(NOT_FOUND),
-                            event -> completeOK(event, marshaller())
-                    );
-          });
-        })
+  @SuppressWarnings("unchecked")
+  private Route watchEvents() {
+    // [Watch events] GET /stream?events=:name,:name
+    return path("stream", () ->
+        get(() -> rateLimited("watch-events", () ->
+            parameter("events", names -> {
+              log.debug("---------- GET /stream?events={} ----------", names);
+
+              Set<String> events = new LinkedHashSet<>(Arrays.asList(names.split(",")));
+              if (events.size() > MAX_WATCHED) {
+                return complete(BAD_REQUEST, new EventError("At most " + MAX_WATCHED + " events."), marshaller());
+              }
+
+              // The current counts, then their changes pushed by the TicketSellers
+              Source<ITicketSeller.Remaining, NotUsed> snapshots = Source.from(events)
+                  .mapAsyncUnordered(4, name -> ask(boxOfficeActor, new GetEvent(name), timeout)
+                      .thenApply(obj -> (Optional<Event>) obj)
+                      .exceptionally(failure -> Optional.empty()))
+                  .filter(Optional::isPresent)
+                  .map(event -> new ITicketSeller.Remaining(event.get().getName(), event.get().getTickets()));
+              Source<ServerSentEvent, NotUsed> updates = remainingHub.watch(events, snapshots)
+                  .map(remaining -> ServerSentEvent.create(
+                      JsonCodec.write(new Event(remaining.getEvent(), remaining.getTickets())).utf8String()))
+                  .keepAlive(Duration.ofSeconds(15), ServerSentEvent::heartbeat);
+              return completeOK(updates, EventStreamMarshalling.toEventStream());
+            })
+        ))
+    );
+  }
+
+  // Answers 429 once the client, known by its API key or else its address, used up its tokens for the route.
+  // Only the keys of goticks.rate-limits.api-keys count, and the address is that of the connection unless
+  // it comes from a trusted proxy, so that a client cannot get new buckets by making up headers.
+  private Route rateLimited(String route, Supplier<Route> inner) {
+    return optionalHeaderValueByType(RemoteAddress.class, peer ->
+        optionalHeaderValueByName(API_KEY, apiKey ->
+            extractClientIP(forwarded -> {
+              Optional<InetAddress> address = peer.flatMap(header -> header.address().getAddress());
+              if (address.filter(trustedProxies::contains).isPresent()) {
+                address = forwarded.getAddress();
+              }
+              String host = address.map(InetAddress::getHostAddress).orElse("unknown");
+              String client = apiKey.filter(apiKeys::contains).map(key -> "key " + key).orElse(host);
+              long wait = rateLimiter.acquire(route, client);
+              if (wait == 0) return inner.get();
+
+              log.debug(msg, host + " over the " + route + " limit");
+              long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+              return complete(HttpResponse.create()
+                  .withStatus(TOO_MANY_REQUESTS)
+                  .addHeader(RetryAfter.create(seconds)));
+            })
+        )
+    );
+  }
+
+  // Completes with the cached body of key, or with the value read from the BoxOffice, cached on the way
+  private Route cached(String key, Supplier<CompletionStage<? extends Optional<?>>> read) {
+    Optional<ResponseCache.Body> hit = cache.get(key);
+    if (hit.isPresent()) {
+      log.debug(msg, "cached " + hit.get().getEtag());
+      return completeCached(hit.get());
+    }
+
+    long version = cache.version(key);
+    return onSuccess(read::get, maybeValue -> {
+      log.debug(msg, maybeValue);
+      return maybeValue
+          .<Route>map(value -> completeCached(cache.put(key, version, value)))
+          .orElseGet(() -> complete(NOT_FOUND));
+    });
+  }
+
+  // Answers If-None-Match with a 304, and Accept-Encoding: gzip with the body gzipped beforehand
+  private Route completeCached(ResponseCache.Body body) {
+    return optionalHeaderValueByType(AcceptEncoding.class, acceptEncoding -> {
+      boolean gzip = acceptEncoding.map(RestApi::acceptsGzip).orElse(false);
+      // Each encoding has its own ETag
+      return conditional(gzip ? body.getGzipEtag() : body.getEtag(), () -> {
+        HttpResponse response = HttpResponse.create()
+            .withEntity(HttpEntities.create(ContentTypes.APPLICATION_JSON, gzip ? body.getGzip() : body.getJson()))
+            .addHeader(RawHeader.create("Vary", "Accept-Encoding"));
+        return complete(gzip ? response.addHeader(ContentEncoding.create(HttpEncodings.GZIP)) : response);
+      });
+    });
+  }
+
+  private static boolean acceptsGzip(AcceptEncoding acceptEncoding) {
+    for (HttpEncodingRange range : acceptEncoding.getEncodings()) {
+      if (range.qValue() > 0 && range.matches(HttpEncodings.GZIP)) return true;
+    }
+    return false;
+  }
+
+  private Route importEvents() {
+    // [Import events] POST /events/ with one event per line, NDJSON or CSV
+    return pathEndOrSingleSlash(() ->
+        post(() -> rateLimited("import-events", () ->
+            extractRequestEntity(entity -> {
+              log.debug("---------- POST /events/ {} ----------", entity.getContentType());
+
+              Optional<EventImport.Format> format = EventImport.format(entity.getContentType());
+              if (!format.isPresent()) {
+                EventError err = new EventError("NDJSON (application/x-ndjson) or CSV (text/csv) expected.");
+                return complete(UNSUPPORTED_MEDIA_TYPE, err, marshaller());
+              }
+
+              Source<ByteString, NotUsed> results = eventImport.run(
+                  entity.withSizeLimit(maxImportLength).getDataBytes(), format.get(),
+                  () -> cache.invalidate(ResponseCache.CATALOG));
+              return complete(HttpResponse.create()
+                  .withEntity(HttpEntities.create(EventImport.NDJSON.toContentType(), results)));
+            })
+        ))
     );
   }
 
   private Route createEvent(String name) {
     // [Create an event] POST /events/:name/ tickets:=:tickets
     return pathEndOrSingleSlash(() ->
-        post(() ->
-            entity(Jackson.unmarshaller(EventDescription.class), event -> {
+        post(() -> rateLimited("create-event", () ->
+            entity(JsonCodec.eventDescription(), event -> {
               log.debug("---------- POST /events/{}/ {\"tickets\":{}} ----------", name, event.getTickets());
 
+              cache.invalidate(name);
               CompletionStage<EventResponse> futureEventResponse =
-                  ask(boxOfficeActor, new CreateEvent(name, event.getTickets()), timeout)
-                      .thenApply(EventResponse.class::cast);
+                  ask(boxOfficeActor, event.getSections().isEmpty()
+                      ? new CreateEvent(name, event.getTickets())
+                      : new CreateEvent(name, event.getSections()), timeout)
+                      .thenApply(EventResponse.class::cast)
+                      .whenComplete((__, failure) -> cache.invalidate(name));
 
               return onSuccess(() -> futureEventResponse, maybeEventResponse -> {
                 log.debug(msg, maybeEventResponse);
@@ -118,31 +307,113 @@ public class RestApi extends AllDirectives {
                 }
               });
             })
-        )
+        ))
     );
   }
 
   private Route requestTickets(String event) {
-    // [Buy tickets] POST /events/:event/tickets/ tickets:=:request
+    // [Buy tickets] POST /events/:event/tickets/ tickets:=:request [Idempotency-Key: :key]
     return pathEndOrSingleSlash(() ->
-        post(() ->
-            entity(Jackson.unmarshaller(TicketRequest.class), request -> {
-              log.debug("---------- POST /events/{}/tickets/ {\"tickets\":{}} ----------", event, request.getTickets());
+        post(() -> rateLimited("buy-tickets", () ->
+            optionalHeaderValueByName(IDEMPOTENCY_KEY, key ->
+                entity(JsonCodec.ticketRequest(), request -> {
+                  log.debug("---------- POST /events/{}/tickets/ {\"tickets\":{}} ----------", event, request.getTickets());
 
-              CompletionStage<TicketSeller.Tickets> futureTickets =
-                  ask(boxOfficeActor, new GetTickets(event, request.getTickets()), timeout)
-                      .thenApply(TicketSeller.Tickets.class::cast);
+                  Supplier<CompletionStage<TicketSeller.Tickets>> buy = () -> {
+                    cache.invalidate(event);
+                    return ask(boxOfficeActor, new GetTickets(event, request.getTickets(), key.orElse(null)), timeout)
+                        .thenApply(TicketSeller.Tickets.class::cast)
+                        .whenComplete((__, failure) -> cache.invalidate(event));
+                  };
+                  // Retries with the key of a purchase get its tickets, and wait for it if it is still running
+                  Optional<CompletionStage<TicketSeller.Tickets>> maybeFutureTickets = key.isPresent()
+                      ? purchases.attach(event + "/" + key.get(), request.getTickets(), buy)
+                      : Optional.of(buy.get());
+                  if (!maybeFutureTickets.isPresent()) {
+                    EventError err = new EventError(IDEMPOTENCY_KEY + " " + key.get() + " was used for another request.");
+                    return complete(UNPROCESSABLE_ENTITY, err, marshaller());
+                  }
 
-              return onSuccess(() -> futureTickets, maybeTickets -> {
-                log.debug(msg, maybeTickets);
+                  return onSuccess(maybeFutureTickets::get, maybeTickets -> {
+                    log.debug(msg, maybeTickets);
+
+                    if (maybeTickets.getEntries().isEmpty())
+                      return complete(NOT_FOUND);
+                    else
+                      return complete(CREATED, maybeTickets, marshaller());
+                  });
+                })
+            )
+        ))
+    );
+  }
 
-                if (maybeTickets.getEntries().isEmpty())
+  private Route holdTickets(String event) {
+    // [Hold tickets] POST /events/:event/holds/ tickets:=:request
+    return pathEndOrSingleSlash(() ->
+        post(() -> rateLimited("hold-tickets", () ->
+            entity(JsonCodec.ticketRequest(), request -> {
+              log.debug("---------- POST /events/{}/holds/ {\"tickets\":{}} ----------", event, request.getTickets());
+
+              cache.invalidate(event);
+              CompletionStage<TicketSeller.Held> futureHeld =
+                  ask(boxOfficeActor, new HoldTickets(event, request.getTickets()), timeout)
+                      .thenApply(TicketSeller.Held.class::cast)
+                      .whenComplete((__, failure) -> cache.invalidate(event));
+
+              return onSuccess(() -> futureHeld, maybeHeld -> {
+                log.debug(msg, maybeHeld);
+
+                if (maybeHeld.getEntries().isEmpty())
                   return complete(NOT_FOUND);
                 else
-                  return complete(CREATED, maybeTickets, marshaller());
+                  return complete(CREATED, maybeHeld, marshaller());
               });
             })
-        )
+        ))
+    );
+  }
+
+  private Route confirmHold(String event, long hold) {
+    // [Confirm a hold] POST /events/:event/holds/:hold/
+    return pathEndOrSingleSlash(() ->
+        post(() -> rateLimited("confirm-hold", () -> {
+          log.debug("---------- POST /events/{}/holds/{}/ ----------", event, hold);
+
+          return onSuccess(() -> ask(boxOfficeActor, new ConfirmHold(event, hold), timeout)
+              .thenApply(TicketSeller.Tickets.class::cast), maybeTickets -> {
+            log.debug(msg, maybeTickets);
+
+            if (maybeTickets.getEntries().isEmpty())
+              return complete(NOT_FOUND);
+            else
+              return complete(CREATED, maybeTickets, marshaller());
+          });
+        }))
+    );
+  }
+
+  private Route releaseHold(String event, long hold) {
+    // [Release a hold] DELETE /events/:event/holds/:hold/
+    return pathEndOrSingleSlash(() ->
+        delete(() -> rateLimited("release-hold", () -> {
+          log.debug("---------- DELETE /events/{}/holds/{}/ ----------", event, hold);
+
+          cache.invalidate(event);
+          CompletionStage<TicketSeller.Tickets> futureTickets =
+              ask(boxOfficeActor, new ReleaseHold(event, hold), timeout)
+                  .thenApply(TicketSeller.Tickets.class::cast)
+                  .whenComplete((__, failure) -> cache.invalidate(event));
+
+          return onSuccess(() -> futureTickets, maybeTickets -> {
+            log.debug(msg, maybeTickets);
+
+            if (maybeTickets.getEntries().isEmpty())
+              return complete(NOT_FOUND);
+            else
+              return completeOK(maybeTickets, marshaller());
+          });
+        }))
     );
   }
 
@@ -150,12 +421,14 @@ public class RestApi extends AllDirectives {
   private Route cancelEvent(String name) {
     // [Cancel an event] DELETE /events/:name/
     return pathEndOrSingleSlash(() ->
-        delete(() -> {
+        delete(() -> rateLimited("cancel-event", () -> {
           log.debug("---------- DELETE /events/{}/ ----------", name);
 
+          cache.invalidate(name);
           CompletionStage<Optional<Event>> futureEvent =
               ask(boxOfficeActor, new CancelEvent(name), timeout)
-                  .thenApply(obj -> (Optional<Event>) obj);
+                  .thenApply(obj -> (Optional<Event>) obj)
+                  .whenComplete((__, failure) -> cache.invalidate(name));
 
           return onSuccess(() -> futureEvent, maybeEvent -> {
             log.debug(msg, maybeEvent);
@@ -165,7 +438,7 @@ public class RestApi extends AllDirectives {
             else
               return complete(NOT_FOUND);
           });
-        })
+        }))
     );
   }
 
@@ -0,0 +1,195 @@
+package com.goticks;
+
+import com.goticks.ITicketSeller.Ticket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The tickets of an event laid out in rows, with an index of the free seats.
+ *
+ * Tickets are kept in the order they were added, best first: a row is a run of tickets
+ * of the same section and row. A segment tree over all the seats keeps, for every node,
+ * the free run at its start, the one at its end and the longest one inside, without
+ * joining runs across rows. Taking the first block of N adjacent free seats, or giving a
+ * seat back, is then a walk down or up the tree, O(log seats) whatever the venue.
+ *
+ * General admission tickets, without a seat, form a single row; when there is no block
+ * long enough among them, the first free ones are taken apart.
+ */
+final class SeatMap {
+
+  private final Ticket[] tickets;
+  private final Map<Integer, Integer> positions;
+  private final boolean seated;
+  private final int leaves;     // Power of two, the seats past tickets.length are never free
+  private final int[] pre;      // Free run starting at the first seat of the node
+  private final int[] suf;      // Free run ending at the last seat of the node
+  private final int[] best;     // Longest free run within the node
+  private final boolean[] joined;   // Both halves of the node meet within a row
+  private int available = 0;
+
+  SeatMap() {
+    this(Collections.emptyList());
+  }
+
+  private SeatMap(List<Ticket> tickets) {
+    this.tickets = tickets.toArray(new Ticket[0]);
+    this.positions = new HashMap<>(tickets.size() * 2);
+    for (int i = 0; i < this.tickets.length; i++) {
+      positions.put(this.tickets[i].getId(), i);
+    }
+    this.seated = tickets.stream().anyMatch(ticket -> ticket.getSeat() != null);
+
+    int size = 1;
+    while (size < this.tickets.length) size <<= 1;
+    this.leaves = size;
+    this.pre = new int[2 * size];
+    this.suf = new int[2 * size];
+    this.best = new int[2 * size];
+    this.joined = new boolean[size];
+    for (int node = size - 1; node > 0; node--) {
+      int last = lastLeaf(2 * node);
+      joined[node] = last + 1 < this.tickets.length && sameRow(this.tickets[last], this.tickets[last + 1]);
+    }
+  }
+
+  // Adds tickets after the current ones, free, keeping the state of the others
+  SeatMap with(List<Ticket> more) {
+    List<Ticket> all = new ArrayList<>(tickets.length + more.size());
+    Collections.addAll(all, tickets);
+    all.addAll(more);
+    SeatMap map = new SeatMap(all);
+    for (int i = 0; i < all.size(); i++) {
+      if (i >= tickets.length || isFree(i)) map.set(i, true);
+    }
+    return map;
+  }
+
+  // The tickets with only the given runs free, as exported by freeRuns(), or all of them for null
+  static SeatMap restore(List<Ticket> tickets, int[] freeRuns) {
+    SeatMap map = new SeatMap(tickets);
+    if (freeRuns == null) {
+      for (int i = 0; i < tickets.size(); i++) map.set(i, true);
+    } else {
+      for (int run = 0; run < freeRuns.length; run += 2) {
+        for (int i = freeRuns[run]; i < freeRuns[run] + freeRuns[run + 1]; i++) map.set(i, true);
+      }
+    }
+    return map;
+  }
+
+  // The free tickets as [first, count, first, count, ...] by position
+  int[] freeRuns() {
+    int[] runs = new int[8];
+    int n = 0;
+    for (int i = 0; i < tickets.length; i++) {
+      if (!isFree(i)) continue;
+      if (n > 0 && runs[n - 2] + runs[n - 1] == i) {
+        runs[n - 1]++;
+      } else {
+        if (n == runs.length) runs = Arrays.copyOf(runs, n * 2);
+        runs[n++] = i;
+        runs[n++] = 1;
+      }
+    }
+    return Arrays.copyOf(runs, n);
+  }
+
+  int available() {
+    return available;
+  }
+
+  /**
+   * Takes the first block of count adjacent free seats in the order of the map, or for
+   * general admission the first free tickets if no such block is left. Returns no
+   * tickets if there are not enough.
+   */
+  List<Ticket> take(int count) {
+    if (count <= 0 || count > available) return Collections.emptyList();
+
+    List<Ticket> taken = new ArrayList<>(count);
+    int start = findBlock(count);
+    if (start >= 0) {
+      for (int i = start; i < start + count; i++) {
+        set(i, false);
+        taken.add(tickets[i]);
+      }
+    } else if (!seated) {
+      // The leftmost free ticket each time, so they come in order
+      for (int n = 0; n < count; n++) {
+        int i = findBlock(1);
+        set(i, false);
+        taken.add(tickets[i]);
+      }
+    }
+    return taken;
+  }
+
+  // Puts tickets taken from this map back
+  void free(List<Ticket> taken) {
+    for (Ticket ticket : taken) {
+      Integer i = positions.get(ticket.getId());
+      if (i != null && !isFree(i)) set(i, true);
+    }
+  }
+
+  // The first seat of the leftmost free run of at least count seats, or -1
+  private int findBlock(int count) {
+    if (best[1] < count) return -1;
+    int node = 1;
+    int lo = 0;
+    int width = leaves;
+    while (node < leaves) {
+      width >>= 1;
+      int left = 2 * node;
+      if (best[left] >= count) {
+        node = left;
+      } else if (joined[node] && suf[left] + pre[left + 1] >= count) {
+        return lo + width - suf[left];
+      } else {
+        node = left + 1;
+        lo += width;
+      }
+    }
+    return lo;
+  }
+
+  private boolean isFree(int i) {
+    return best[leaves + i] == 1;
+  }
+
+  private void set(int i, boolean free) {
+    int node = leaves + i;
+    int run = free ? 1 : 0;
+    available += free ? 1 : -1;
+    pre[node] = suf[node] = best[node] = run;
+    int width = 1;
+    for (node >>= 1; node > 0; node >>= 1) {
+      int left = 2 * node;
+      int right = left + 1;
+      boolean join = joined[node];
+      pre[node] = join && pre[left] == width ? width + pre[right] : pre[left];
+      suf[node] = join && suf[right] == width ? width + suf[left] : suf[right];
+      best[node] = Math.max(Math.max(best[left], best[right]), join ? suf[left] + pre[right] : 0);
+      width <<= 1;
+    }
+  }
+
+  // The last seat under the given node
+  private int lastLeaf(int node) {
+    while (node < leaves) node = 2 * node + 1;
+    return node - leaves;
+  }
+
+  private static boolean sameRow(Ticket a, Ticket b) {
+    if (a.getSeat() == null || b.getSeat() == null) return a.getSeat() == b.getSeat();
+    return a.getSeat().getRow() == b.getSeat().getRow()
+        && Objects.equals(a.getSeat().getSection(), b.getSeat().getSection());
+  }
+}
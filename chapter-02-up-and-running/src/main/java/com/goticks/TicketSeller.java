@@ -1,70 +1,226 @@
 package com.goticks;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
-public class TicketSeller extends AbstractActor implements ITicketSeller {
+/**
+ * Sells the tickets of one event.
+ *
+ * The tickets are kept in a {@link SeatMap}, so that a group is given adjacent seats: the
+ * first block long enough, in the order of the sections and rows of the event.
+ *
+ * Held tickets are out of the sale until they are confirmed or released. Their expiry is
+ * kept in one {@link TimerWheel}, advanced by a single periodic tick that runs while there
+ * are holds, so a seller with many holds still has one scheduled timer; each tick expires
+ * all the holds due at once.
+ *
+ * A seller that receives nothing for the idle timeout, and has no holds, offers to stop;
+ * the BoxOffice then keeps its free tickets and starts it again with Restore when the
+ * event is in demand.
+ *
+ * The seller runs on a {@link TicketSellerMailbox}: Cancel comes first, purchases before
+ * reads, and the reads waiting together get one reply. Once cancelled, the seller answers
+ * what is left in its mailbox as for an unknown event before it stops.
+ */
+public class TicketSeller extends AbstractActorWithTimers implements ITicketSeller {
+
+  private static final Object TICK = "tick";
 
   private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
   private final String msg = " 📩 {}";
   private final String event;
+  private final Duration holdTimeout;
+  private final Duration holdTick;
+  private final Duration idleTimeout;
 
-  private TicketSeller(String event) {
+  private TicketSeller(String event, Duration holdTimeout, Duration holdTick, Duration idleTimeout) {
     this.event = event;
+    this.holdTimeout = holdTimeout;
+    this.holdTick = holdTick;
+    this.idleTimeout = idleTimeout;
   }
 
-  public static Props props(String event) {
-    return Props.create(TicketSeller.class, () -> new TicketSeller(event));
+  public static Props props(String event, Duration holdTimeout, Duration holdTick, Duration idleTimeout) {
+    return Props.create(TicketSeller.class, () -> new TicketSeller(event, holdTimeout, holdTick, idleTimeout))
+        .withMailbox("goticks.ticket-seller-mailbox");
   }
 
-  private final List<Ticket> tickets = new ArrayList<>();
+  private SeatMap seats = new SeatMap();
+  private final Map<Long, List<Ticket>> holds = new HashMap<>();
+  private TimerWheel expiry;
+  private long lastHold = 0;
+
+  @Override
+  public void preStart() {
+    expiry = new TimerWheel(holdTick.toNanos(), System.nanoTime());
+    getContext().setReceiveTimeout(idleTimeout);
+  }
 
   @Override
   public Receive createReceive() {
     return receiveBuilder()
         .match(Add.class, this::add)
+        .match(Restore.class, this::restore)
         .match(Buy.class, this::buy)
+        .match(Hold.class, this::hold)
+        .match(Confirm.class, this::confirm)
+        .match(Release.class, this::release)
+        .matchEquals(TICK, __ -> expireHolds())
         .match(GetEvent.class, this::getEvent)
+        .match(TicketSellerMailbox.GetEvents.class, this::getEvents)
         .match(Cancel.class, this::cancel)
+        .match(ReceiveTimeout.class, __ -> idle())
+        .match(Passivate.class, this::passivate)
         .build();
   }
 
   private void add(Add add) {
     log.debug(msg, add);
 
-    tickets.addAll(add.getTickets());
+    seats = seats.with(add.getTickets());
+    publishRemaining();
+  }
+
+  private void restore(Restore restore) {
+    log.debug(msg, restore);
+
+    seats = SeatMap.restore(restore.getTickets(), restore.getFreeRuns());
   }
 
   private void buy(Buy buy){
     log.debug(msg, buy);
 
-    if (tickets.size() >= buy.getTickets()) {
-      List<Ticket> entries = tickets.subList(0, buy.getTickets());
-      getContext().sender().tell(new Tickets(event, entries), getSelf());
-      entries.clear();
+    // No entries when there are not enough tickets, or no block of adjacent seats
+    List<Ticket> entries = seats.take(buy.getTickets());
+    getContext().sender().tell(new Tickets(event, entries), getSelf());
+    if (!entries.isEmpty()) publishRemaining();
+  }
+
+  private void hold(Hold hold) {
+    log.debug(msg, hold);
+
+    List<Ticket> held = seats.take(hold.getTickets());
+    if (!held.isEmpty()) {
+      long id = ++lastHold;
+      holds.put(id, held);
+      if (expiry.size() == 0) {
+        getTimers().startPeriodicTimer(TICK, TICK, holdTick);
+      }
+      expiry.schedule(id, System.nanoTime() + holdTimeout.toNanos());
+      sender().tell(new Held(event, id, held), self());
+      publishRemaining();
     } else {
-      getContext().sender().tell(new Tickets(event), getSelf());
+      sender().tell(new Held(event), self());
+    }
+  }
+
+  private void confirm(Confirm confirm) {
+    log.debug(msg, confirm);
+
+    // Confirmed and released holds are left in the wheel, and skipped when they expire
+    List<Ticket> held = holds.remove(confirm.getHold());
+    sender().tell(held != null ? new Tickets(event, held) : new Tickets(event), self());
+  }
+
+  private void release(Release release) {
+    log.debug(msg, release);
+
+    List<Ticket> held = holds.remove(release.getHold());
+    if (held != null) {
+      seats.free(held);
+      sender().tell(new Tickets(event, held), self());
+      publishRemaining();
+    } else {
+      sender().tell(new Tickets(event), self());
+    }
+  }
+
+  private void expireHolds() {
+    int before = seats.available();
+    expiry.advance(System.nanoTime(), id -> {
+      List<Ticket> held = holds.remove(id);
+      if (held != null) seats.free(held);
+    });
+    if (expiry.size() == 0) {
+      getTimers().cancel(TICK);
+    }
+
+    int returned = seats.available() - before;
+    if (returned > 0) {
+      log.debug(msg, returned + " held tickets back on sale");
+      getContext().getSystem().eventStream().publish(new HoldsExpired(event, returned));
+      publishRemaining();
     }
   }
 
   private void getEvent(GetEvent getEvent) {
     log.debug(msg, getEvent);
 
-    sender().tell(Optional.of(new BoxOffice.Event(event, tickets.size())), self());
+    sender().tell(Optional.of(new BoxOffice.Event(event, seats.available())), self());
+  }
+
+  private void getEvents(TicketSellerMailbox.GetEvents getEvents) {
+    log.debug(msg, getEvents.getSenders().size() + " reads at once");
+
+    Optional<BoxOffice.Event> reply = Optional.of(new BoxOffice.Event(event, seats.available()));
+    getEvents.getSenders().forEach(sender -> sender.tell(reply, self()));
   }
 
   private void cancel(Cancel cancel){
     log.debug(msg, cancel);
 
-    sender().tell(Optional.of(new BoxOffice.Event(event, tickets.size())), self());
+    sender().tell(Optional.of(new BoxOffice.Event(event, seats.available())), self());
+    // Taken after what is already in the mailbox
     self().tell(PoisonPill.getInstance(), self());
+    getContext().become(cancelled());
+    // Nothing is on sale any more
+    getContext().getSystem().eventStream().publish(new Remaining(event, 0));
+  }
+
+  private Receive cancelled() {
+    return receiveBuilder()
+        .match(Buy.class, __ -> sender().tell(new Tickets(event), self()))
+        .match(Hold.class, __ -> sender().tell(new Held(event), self()))
+        .match(Confirm.class, __ -> sender().tell(new Tickets(event), self()))
+        .match(Release.class, __ -> sender().tell(new Tickets(event), self()))
+        .match(GetEvent.class, __ -> sender().tell(Optional.empty(), self()))
+        .match(TicketSellerMailbox.GetEvents.class, getEvents ->
+            getEvents.getSenders().forEach(sender -> sender.tell(Optional.empty(), self())))
+        .match(Cancel.class, __ -> sender().tell(Optional.empty(), self()))
+        .build();
+  }
+
+  private void idle() {
+    // The ticks of the holds keep the seller awake until the last one is gone
+    if (holds.isEmpty()) {
+      getContext().getParent().tell(new Idle(event), self());
+    }
+  }
+
+  private void passivate(Passivate passivate) {
+    log.debug(msg, passivate);
+
+    // A hold may have come in since Idle was sent
+    if (holds.isEmpty()) {
+      sender().tell(new Passivated(event, seats.available(), seats.freeRuns()), self());
+      getContext().stop(self());
+    } else {
+      sender().tell(new Busy(event), self());
+    }
+  }
+
+  private void publishRemaining() {
+    getContext().getSystem().eventStream().publish(new Remaining(event, seats.available()));
   }
 }
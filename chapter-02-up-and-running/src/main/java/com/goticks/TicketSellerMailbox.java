@@ -0,0 +1,118 @@
+package com.goticks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The mailbox of a TicketSeller, set by goticks.ticket-seller-mailbox.
+ *
+ * Messages are taken by class, in order within each: first Cancel, with the Add or Restore
+ * that must come before anything else, then purchases and holds, then reads, and last the
+ * messages that stop the seller, so that everything sent before them is answered. The
+ * GetEvents waiting in the mailbox are taken at once, as a single {@link GetEvents} with
+ * all their senders, and answered with one reply.
+ */
+public final class TicketSellerMailbox implements MailboxType, ProducesMessageQueue<TicketSellerMailbox.SellerQueue> {
+
+  public TicketSellerMailbox(ActorSystem.Settings settings, Config config) {
+  }
+
+  @Override
+  public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+    return new SellerQueue(system.get());
+  }
+
+  // The GetEvents of several senders, coalesced in the mailbox
+  static final class GetEvents {
+    private final List<ActorRef> senders;
+
+    GetEvents(List<ActorRef> senders) {
+      this.senders = Collections.unmodifiableList(senders);
+    }
+
+    List<ActorRef> getSenders() {
+      return senders;
+    }
+  }
+
+  static final class SellerQueue implements MessageQueue {
+    private final ActorSystem system;
+    private final Queue<Envelope> control = new ConcurrentLinkedQueue<>();
+    private final Queue<Envelope> writes = new ConcurrentLinkedQueue<>();
+    private final Queue<Envelope> reads = new ConcurrentLinkedQueue<>();
+    private final Queue<Envelope> last = new ConcurrentLinkedQueue<>();
+
+    SellerQueue(ActorSystem system) {
+      this.system = system;
+    }
+
+    @Override
+    public void enqueue(ActorRef receiver, Envelope handle) {
+      Object message = handle.message();
+      if (message instanceof ITicketSeller.Cancel
+          || message instanceof ITicketSeller.Add
+          || message instanceof ITicketSeller.Restore) {
+        control.add(handle);
+      } else if (message instanceof ITicketSeller.GetEvent) {
+        reads.add(handle);
+      } else if (message instanceof ITicketSeller.Passivate || message instanceof PoisonPill) {
+        last.add(handle);
+      } else {
+        writes.add(handle);
+      }
+    }
+
+    @Override
+    public Envelope dequeue() {
+      Envelope next = control.poll();
+      if (next == null) next = writes.poll();
+      if (next == null) next = coalescedReads();
+      if (next == null) next = last.poll();
+      return next;
+    }
+
+    private Envelope coalescedReads() {
+      Envelope first = reads.poll();
+      if (first == null) return null;
+      List<ActorRef> senders = new ArrayList<>();
+      senders.add(first.sender());
+      for (Envelope read = reads.poll(); read != null; read = reads.poll()) {
+        senders.add(read.sender());
+      }
+      return Envelope.apply(new GetEvents(senders), first.sender(), system);
+    }
+
+    @Override
+    public int numberOfMessages() {
+      return control.size() + writes.size() + reads.size() + last.size();
+    }
+
+    @Override
+    public boolean hasMessages() {
+      return !control.isEmpty() || !writes.isEmpty() || !reads.isEmpty() || !last.isEmpty();
+    }
+
+    @Override
+    public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+      for (Queue<Envelope> queue : Arrays.asList(control, writes, reads, last)) {
+        for (Envelope handle = queue.poll(); handle != null; handle = queue.poll()) {
+          deadLetters.enqueue(owner, handle);
+        }
+      }
+    }
+  }
+}
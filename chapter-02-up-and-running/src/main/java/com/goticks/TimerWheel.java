@@ -0,0 +1,120 @@
+package com.goticks;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A hierarchical timer wheel of ids, for a single periodic tick to expire any number of them.
+ *
+ * Time is counted in ticks. Each of the 4 levels has 64 slots, a slot of level L spanning
+ * 64^L ticks, so the wheel covers 64^4 ticks ahead; deadlines further away are parked in
+ * the last level and placed again when it comes round. An id is put in the slot of its
+ * deadline in the lowest level that reaches it, and moves down a level each time the
+ * level below wraps around, so scheduling is O(1) and every id is handled at most once
+ * per level before it expires.
+ *
+ * Cancelling is left to the caller: an id that is no longer wanted is simply ignored
+ * when it expires.
+ */
+final class TimerWheel {
+
+  private static final int LEVELS = 4;
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final long HORIZON = 1L << (SLOT_BITS * LEVELS);
+
+  private final long tickNanos;
+  private final long startNanos;
+  private final Slot[][] wheel = new Slot[LEVELS][SLOTS];
+  private long current = 0;   // Ticks done
+  private int size = 0;
+
+  TimerWheel(long tickNanos, long startNanos) {
+    if (tickNanos <= 0) throw new IllegalArgumentException("tickNanos must be positive: " + tickNanos);
+    this.tickNanos = tickNanos;
+    this.startNanos = startNanos;
+    for (Slot[] level : wheel) {
+      for (int i = 0; i < SLOTS; i++) {
+        level[i] = new Slot();
+      }
+    }
+  }
+
+  // Expires the id at the first tick at or after deadlineNanos
+  void schedule(long id, long deadlineNanos) {
+    long deadline = Math.max(current + 1, ceilDiv(deadlineNanos - startNanos, tickNanos));
+    place(id, deadline);
+    size++;
+  }
+
+  /**
+   * Runs the ticks up to nowNanos, handing every id that expires to expired.
+   */
+  void advance(long nowNanos, LongConsumer expired) {
+    long target = (nowNanos - startNanos) / tickNanos;
+    while (current < target && size > 0) {
+      current++;
+      cascade();
+      Slot due = wheel[0][(int) (current & MASK)];
+      int count = due.size;
+      due.size = 0;
+      for (int i = 0; i < count; i++) {
+        size--;
+        expired.accept(due.ids[i]);
+      }
+    }
+    // Nothing left to expire, skip the empty ticks at once
+    if (current < target) current = target;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // Moves the ids of the slots that come round down a level, highest level first
+  private void cascade() {
+    for (int level = LEVELS - 1; level > 0; level--) {
+      if ((current & ((1L << (SLOT_BITS * level)) - 1)) != 0) continue;
+      Slot slot = wheel[level][(int) ((current >>> (SLOT_BITS * level)) & MASK)];
+      int count = slot.size;
+      slot.size = 0;
+      for (int i = 0; i < count; i++) {
+        place(slot.ids[i], slot.deadlines[i]);
+      }
+    }
+  }
+
+  private void place(long id, long deadline) {
+    long delta = deadline - current;
+    // Parked in the last level until the deadline is within reach
+    long reachable = Math.min(deadline, current + HORIZON - 1);
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    int index = (int) ((reachable >>> (SLOT_BITS * level)) & MASK);
+    wheel[level][index].add(id, deadline);
+  }
+
+  private static long ceilDiv(long x, long y) {
+    return -Math.floorDiv(-x, y);
+  }
+
+  // The ids of a slot and their deadlines, in arrays kept across rounds
+  private static final class Slot {
+    long[] ids = new long[4];
+    long[] deadlines = new long[4];
+    int size = 0;
+
+    void add(long id, long deadline) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        deadlines = Arrays.copyOf(deadlines, size * 2);
+      }
+      ids[size] = id;
+      deadlines[size] = deadline;
+      size++;
+    }
+  }
+}
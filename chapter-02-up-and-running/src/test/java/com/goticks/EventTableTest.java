@@ -0,0 +1,77 @@
+package com.goticks;
+
+import com.goticks.IBoxOffice.Section;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventTableTest {
+
+  @Test
+  public void testKeepsTheRowsOfEvents() {
+    EventTable table = new EventTable();
+    assertTrue(table.add("RHCP", 10, Collections.emptyList()));
+    assertTrue(table.add("DjMadlib", 5, Arrays.asList(new Section("A", Arrays.asList(2, 3)))));
+    assertFalse(table.add("RHCP", 3, Collections.emptyList()));
+
+    assertEquals(2, table.size());
+    assertEquals(10, table.available("RHCP"));
+    assertEquals(-1, table.available("Nirvana"));
+    assertEquals(Collections.emptyList(), table.sections("RHCP"));
+    assertEquals("A", table.sections("DjMadlib").get(0).getName());
+    assertNull(table.freeRuns("RHCP"));
+
+    table.update("RHCP", 7, new int[]{3, 7});
+    assertEquals(7, table.available("RHCP"));
+    assertEquals(10, table.total("RHCP"));
+    assertArrayEquals(new int[]{3, 7}, table.freeRuns("RHCP"));
+    // All free again
+    table.update("RHCP", 10, new int[]{0, 10});
+    assertNull(table.freeRuns("RHCP"));
+  }
+
+  @Test
+  public void testRemovesRows() {
+    EventTable table = new EventTable();
+    table.add("RHCP", 10, Collections.emptyList());
+    table.add("DjMadlib", 5, Collections.emptyList());
+
+    assertTrue(table.remove("RHCP"));
+    assertFalse(table.remove("RHCP"));
+    assertFalse(table.contains("RHCP"));
+    // The last row took the place of the removed one
+    assertEquals(5, table.available("DjMadlib"));
+    assertTrue(table.add("RHCP", 3, Collections.emptyList()));
+    assertEquals(3, table.available("RHCP"));
+  }
+
+  @Test
+  public void testMatchesAMapThroughAddsAndRemoves() {
+    EventTable table = new EventTable();
+    Map<String, Integer> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      String name = "event-" + random.nextInt(5_000);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(name) != null, table.remove(name));
+      } else {
+        assertEquals(expected.putIfAbsent(name, i) == null, table.add(name, i, Collections.emptyList()));
+      }
+    }
+
+    assertEquals(expected.size(), table.size());
+    Map<String, Integer> rows = new HashMap<>();
+    table.forEach(rows::put);
+    assertEquals(expected, rows);
+  }
+}
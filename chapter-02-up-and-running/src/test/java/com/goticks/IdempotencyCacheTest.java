@@ -0,0 +1,68 @@
+package com.goticks;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotencyCacheTest {
+
+  @Test
+  public void testDuplicatesAttachToTheFirstRequest() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(10, Duration.ofMinutes(1));
+    CompletableFuture<String> pending = new CompletableFuture<>();
+    AtomicInteger started = new AtomicInteger();
+
+    CompletionStage<String> first = cache.attach("k", 2, () -> {
+      started.incrementAndGet();
+      return pending;
+    }).get();
+    CompletionStage<String> retry = cache.attach("k", 2, () -> {
+      started.incrementAndGet();
+      return CompletableFuture.completedFuture("again");
+    }).get();
+
+    pending.complete("tickets");
+    assertEquals("tickets", first.toCompletableFuture().join());
+    assertEquals("tickets", retry.toCompletableFuture().join());
+    assertEquals(1, started.get());
+
+    // The same key for another request
+    assertFalse(cache.attach("k", 3, () -> CompletableFuture.completedFuture("other")).isPresent());
+  }
+
+  @Test
+  public void testFailuresAreForgotten() {
+    IdempotencyCache<String> cache = new IdempotencyCache<>(10, Duration.ofMinutes(1));
+    CompletableFuture<String> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("timeout"));
+
+    assertTrue(cache.attach("k", 1, () -> failed).get().toCompletableFuture().isCompletedExceptionally());
+    assertEquals(0, cache.size());
+    assertEquals("tickets", cache.attach("k", 1, () -> CompletableFuture.completedFuture("tickets"))
+        .get().toCompletableFuture().join());
+  }
+
+  @Test
+  public void testBounded() throws InterruptedException {
+    IdempotencyCache<Integer> bySize = new IdempotencyCache<>(3, Duration.ofMinutes(1));
+    for (int i = 0; i < 10; i++) {
+      final int value = i;
+      bySize.attach("k" + i, 1, () -> CompletableFuture.completedFuture(value));
+    }
+    assertEquals(3, bySize.size());
+    assertEquals(9, (int) bySize.attach("k9", 1, () -> CompletableFuture.completedFuture(-1)).get().toCompletableFuture().join());
+    assertEquals(-1, (int) bySize.attach("k0", 1, () -> CompletableFuture.completedFuture(-1)).get().toCompletableFuture().join());
+
+    IdempotencyCache<Integer> byTime = new IdempotencyCache<>(10, Duration.ofMillis(50));
+    byTime.attach("k", 1, () -> CompletableFuture.completedFuture(1));
+    Thread.sleep(100);
+    assertEquals(2, (int) byTime.attach("k", 1, () -> CompletableFuture.completedFuture(2)).get().toCompletableFuture().join());
+  }
+}
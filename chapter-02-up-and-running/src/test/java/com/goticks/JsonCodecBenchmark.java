@@ -0,0 +1,83 @@
+package com.goticks;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.goticks.IBoxOffice.Event;
+import com.goticks.IBoxOffice.Events;
+import com.goticks.IEventMarshalling.TicketRequest;
+import com.goticks.ITicketSeller.Ticket;
+import com.goticks.ITicketSeller.Tickets;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * JsonCodec against the Jackson mapping that Jackson.marshaller() and Jackson.unmarshaller()
+ * use, as RestApi did before: writing Tickets and Events to bytes, and reading a TicketRequest.
+ *
+ * Run the main method, the benchmarks are not part of the test suite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+  @Param({"10", "1000"})
+  int size;
+
+  private final ObjectMapper jackson = new ObjectMapper().enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
+  private Tickets tickets;
+  private Events events;
+  private final ByteString requestBytes = ByteString.fromString("{\"tickets\": 42}");
+
+  @Setup
+  public void setup() {
+    List<Ticket> entries = IntStream.rangeClosed(1, size).mapToObj(Ticket::new).collect(Collectors.toList());
+    tickets = new Tickets("RHCP", entries);
+    events = new Events(IntStream.range(0, size).mapToObj(i -> new Event("event-" + i, i)).collect(Collectors.toList()));
+  }
+
+  @Benchmark
+  public ByteString jacksonWriteTickets() throws Exception {
+    return ByteString.fromString(jackson.writeValueAsString(tickets));
+  }
+
+  @Benchmark
+  public ByteString codecWriteTickets() {
+    return JsonCodec.write(tickets);
+  }
+
+  @Benchmark
+  public ByteString jacksonWriteEvents() throws Exception {
+    return ByteString.fromString(jackson.writeValueAsString(events));
+  }
+
+  @Benchmark
+  public ByteString codecWriteEvents() {
+    return JsonCodec.write(events);
+  }
+
+  @Benchmark
+  public int jacksonReadRequest() throws Exception {
+    return jackson.readValue(requestBytes.utf8String(), TicketRequest.class).getTickets();
+  }
+
+  @Benchmark
+  public int codecReadRequest() {
+    return JsonCodec.readTickets(requestBytes);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(JsonCodecBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,120 @@
+package com.goticks;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.goticks.IBoxOffice.CreateEvent;
+import com.goticks.IBoxOffice.Event;
+import com.goticks.IBoxOffice.Events;
+import com.goticks.IEventMarshalling.EventDescription;
+import com.goticks.IEventMarshalling.EventError;
+import com.goticks.IEventMarshalling.ImportResult;
+import com.goticks.IEventMarshalling.ImportSummary;
+import com.goticks.ITicketSeller.Held;
+import com.goticks.ITicketSeller.Seat;
+import com.goticks.ITicketSeller.Ticket;
+import com.goticks.ITicketSeller.Tickets;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonCodecTest {
+
+  // Configured as the default mapper of Jackson.marshaller()
+  private final ObjectMapper jackson = new ObjectMapper().enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
+
+  private void assertSameAsJackson(Object value) throws Exception {
+    assertEquals(ByteString.fromString(jackson.writeValueAsString(value)), JsonCodec.write(value));
+  }
+
+  @Test
+  public void testWriteLikeJackson() throws Exception {
+    assertSameAsJackson(new Event("RHCP", 3));
+    assertSameAsJackson(new Event("Ça \"va\" \\ ☃ 𝄞\n\u0001\u001f", -12));
+    assertSameAsJackson(new Events(Arrays.asList(new Event("a", 0), new Event("b", Integer.MAX_VALUE))));
+    assertSameAsJackson(new Events(Arrays.asList()));
+    assertSameAsJackson(new EventError("RHCP exists already."));
+    assertSameAsJackson(new ImportResult(1, "RHCP", "created", null));
+    assertSameAsJackson(new ImportResult(12345678901L, null, "invalid", "Name expected"));
+    assertSameAsJackson(new ImportSummary(3, 2, 1));
+  }
+
+  @Test
+  public void testWriteTicketRuns() throws Exception {
+    // Runs across a change in the number of digits, with gaps between them
+    List<Ticket> entries = IntStream.concat(IntStream.rangeClosed(7, 1012), IntStream.of(5000, 99998, 99999, 100000, 3))
+        .mapToObj(Ticket::new)
+        .collect(Collectors.toList());
+    assertSameAsJackson(new Tickets("RHCP", entries));
+    assertSameAsJackson(new Tickets("RHCP"));
+    assertSameAsJackson(new Tickets("RHCP", Arrays.asList(new Ticket(Integer.MAX_VALUE - 1), new Ticket(Integer.MAX_VALUE))));
+    assertSameAsJackson(new Held("RHCP", Long.MAX_VALUE, Arrays.asList(new Ticket(1), new Ticket(2))));
+    assertSameAsJackson(new Held("RHCP"));
+    assertSameAsJackson(new Tickets("RHCP", Arrays.asList(
+        new Ticket(1), new Ticket(2, new Seat("Parterre \"A\"", 1, 7)), new Ticket(3, new Seat("B", 12, 8)), new Ticket(4))));
+  }
+
+  @Test
+  public void testReadTickets() {
+    assertEquals(3, JsonCodec.readTickets(ByteString.fromString("{\"tickets\": 3}")));
+    assertEquals(-2, JsonCodec.readTickets(ByteString.fromString(" {\"other\": {\"a\": [1, \"x\\\"\", null]}, \"tickets\":-2 } ")));
+    assertEquals(0, JsonCodec.readTickets(ByteString.fromString("{}")));
+    assertEquals(5, JsonCodec.readTickets(ByteString.fromString("{\"t\\u0069ckets\": 5}")));
+  }
+
+  @Test
+  public void testReadEventDescription() {
+    EventDescription general = JsonCodec.readEventDescription(ByteString.fromString("{\"tickets\": 3}"));
+    assertEquals(3, general.getTickets());
+    assertEquals(0, general.getSections().size());
+
+    EventDescription seated = JsonCodec.readEventDescription(ByteString.fromString(
+        "{\"sections\": [{\"name\": \"A\", \"rows\": [2, 3], \"x\": 1}, {\"rows\": []}]}"));
+    assertEquals(2, seated.getSections().size());
+    assertEquals("A", seated.getSections().get(0).getName());
+    assertEquals(Arrays.asList(2, 3), seated.getSections().get(0).getRows());
+    assertEquals("", seated.getSections().get(1).getName());
+  }
+
+  @Test
+  public void testReadCreateEvent() {
+    CreateEvent general = JsonCodec.readCreateEvent(ByteString.fromString("{\"tickets\": 3, \"name\": \"RHCP\"}"));
+    assertEquals("RHCP", general.getName());
+    assertEquals(3, general.getTickets());
+
+    CreateEvent seated = JsonCodec.readCreateEvent(ByteString.fromString(
+        "{\"name\": \"DjMadlib\", \"sections\": [{\"name\": \"A\", \"rows\": [2, 3]}]}"));
+    assertEquals(5, seated.getTickets());
+    assertEquals("A", seated.getSections().get(0).getName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadCreateEventWithoutName() {
+    JsonCodec.readCreateEvent(ByteString.fromString("{\"tickets\": 3}"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadNegativeRow() {
+    JsonCodec.readEventDescription(ByteString.fromString("{\"sections\": [{\"name\": \"A\", \"rows\": [-1]}]}"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadTruncated() {
+    JsonCodec.readTickets(ByteString.fromString("{\"tickets\": 3"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadNotAnInteger() {
+    JsonCodec.readTickets(ByteString.fromString("{\"tickets\": \"3\"}"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadOverflow() {
+    JsonCodec.readTickets(ByteString.fromString("{\"tickets\": 2147483648}"));
+  }
+}
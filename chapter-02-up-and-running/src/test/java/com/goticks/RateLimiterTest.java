@@ -0,0 +1,63 @@
+package com.goticks;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+  private static RateLimiter limiter(String config) {
+    return new RateLimiter(ConfigFactory.parseString(config));
+  }
+
+  @Test
+  public void testBurstThenRate() throws InterruptedException {
+    RateLimiter limiter = limiter("max-clients = 100, default { rate = 20, burst = 3 }, routes { slow { rate = 0.1, burst = 1 } }");
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.acquire("fast", "a"));
+    }
+    long wait = limiter.acquire("fast", "a");
+    assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(50));
+    // Other clients and other routes have their own buckets
+    assertEquals(0, limiter.acquire("fast", "b"));
+    assertEquals(0, limiter.acquire("slow", "a"));
+    assertTrue(limiter.acquire("slow", "a") > TimeUnit.SECONDS.toNanos(9));
+
+    Thread.sleep(60);
+    assertEquals(0, limiter.acquire("fast", "a"));
+  }
+
+  @Test
+  public void testEvictsClients() {
+    RateLimiter limiter = limiter("max-clients = 160, default { rate = 1, burst = 5 }, routes {}");
+    for (int i = 0; i < 10_000; i++) {
+      limiter.acquire("route", "client-" + i);
+    }
+    assertTrue(limiter.clients() <= 160);
+  }
+
+  @Test
+  public void testConcurrentClientsShareTheBurst() throws InterruptedException {
+    RateLimiter limiter = limiter("max-clients = 100, default { rate = 0.001, burst = 1000 }, routes {}");
+    AtomicInteger granted = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      pool.execute(() -> {
+        for (int i = 0; i < 500; i++) {
+          if (limiter.acquire("route", "bot") == 0) granted.incrementAndGet();
+        }
+      });
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1000, granted.get());
+  }
+}
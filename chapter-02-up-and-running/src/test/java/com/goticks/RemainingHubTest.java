@@ -0,0 +1,97 @@
+package com.goticks;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Source;
+import akka.stream.testkit.TestPublisher;
+import akka.stream.testkit.TestSubscriber;
+import akka.stream.testkit.javadsl.TestSink;
+import akka.testkit.javadsl.TestKit;
+import com.goticks.ITicketSeller.Remaining;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class RemainingHubTest {
+
+  private ActorSystem system;
+  private ActorMaterializer materializer;
+  private RemainingHub hub;
+
+  @Before
+  public void setUp() {
+    system = ActorSystem.create("remaining-hub");
+    materializer = ActorMaterializer.create(system);
+    hub = new RemainingHub(system, materializer);
+  }
+
+  @After
+  public void tearDown() {
+    TestKit.shutdownActorSystem(system);
+  }
+
+  private void publish(String event, int tickets) {
+    system.eventStream().publish(new Remaining(event, tickets));
+  }
+
+  private static String show(Remaining remaining) {
+    return remaining.getEvent() + "=" + remaining.getTickets();
+  }
+
+  private TestSubscriber.Probe<Remaining> watch(Source<Remaining, ?> snapshots, String... events)
+      throws InterruptedException {
+    TestSubscriber.Probe<Remaining> probe = hub.watch(new HashSet<>(Arrays.asList(events)), snapshots)
+        .runWith(TestSink.probe(system), materializer);
+    // Lets the stream join the hub
+    Thread.sleep(200);
+    return probe;
+  }
+
+  @Test
+  public void testSnapshotsThenChanges() throws InterruptedException {
+    TestSubscriber.Probe<Remaining> probe = watch(Source.single(new Remaining("A", 5)), "A", "B");
+
+    probe.request(10);
+    assertEquals("A=5", show(probe.expectNext()));
+    publish("C", 1);
+    publish("B", 2);
+    publish("A", 4);
+    assertEquals("B=2", show(probe.expectNext()));
+    assertEquals("A=4", show(probe.expectNext()));
+    probe.expectNoMessage(Duration.ofMillis(100));
+  }
+
+  @Test
+  public void testStaleSnapshotIsDropped() throws InterruptedException {
+    TestPublisher.Probe<Remaining> snapshots = TestPublisher.probe(0, system);
+    TestSubscriber.Probe<Remaining> probe = watch(Source.fromPublisher(snapshots), "A");
+
+    probe.request(10);
+    publish("A", 4);
+    assertEquals("A=4", show(probe.expectNext()));
+    snapshots.sendNext(new Remaining("A", 5));
+    probe.expectNoMessage(Duration.ofMillis(100));
+  }
+
+  @Test
+  public void testSlowClientGetsTheLatestCounts() throws InterruptedException {
+    TestSubscriber.Probe<Remaining> probe = watch(Source.empty(), "A", "B");
+
+    for (int tickets = 100; tickets > 0; tickets--) {
+      publish("A", tickets);
+    }
+    publish("B", 7);
+    Thread.sleep(200);
+
+    probe.request(10);
+    assertEquals("A=1", show(probe.expectNext()));
+    assertEquals("B=7", show(probe.expectNext()));
+    probe.expectNoMessage(Duration.ofMillis(100));
+  }
+}
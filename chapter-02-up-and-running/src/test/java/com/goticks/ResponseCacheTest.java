@@ -0,0 +1,50 @@
+package com.goticks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheTest {
+
+  @Test
+  public void testKeepsTheLastBodiesRead() {
+    ResponseCache cache = new ResponseCache(2);
+    for (String event : new String[] {"a", "b"}) {
+      cache.put(event, cache.version(event), new IBoxOffice.Event(event, 3));
+    }
+    cache.get("a");
+    cache.put("c", cache.version("c"), new IBoxOffice.Event("c", 3));
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.get("a").isPresent());
+    assertFalse(cache.get("b").isPresent());
+    assertTrue(cache.get("c").isPresent());
+  }
+
+  @Test
+  public void testNeverCachesABodyReadBeforeAChange() {
+    ResponseCache cache = new ResponseCache(10);
+    long version = cache.version("a");
+    ResponseCache.Body body = cache.put("a", version, new IBoxOffice.Event("a", 3));
+    cache.invalidate("a");
+
+    // Read before the change, answered but not cached
+    cache.put("a", version, new IBoxOffice.Event("a", 3));
+    assertFalse(cache.get("a").isPresent());
+    // Nor does the version come back once nothing is kept for the event
+    cache.invalidate("b");
+    assertNotEquals(version, cache.version("a"));
+    assertNotEquals(body.getEtag(), cache.put("a", cache.version("a"), new IBoxOffice.Event("a", 2)).getEtag());
+  }
+
+  @Test
+  public void testGzipHasItsOwnEtag() {
+    ResponseCache.Body body = new ResponseCache(10).put("a", 0, new IBoxOffice.Event("a", 3));
+
+    assertNotEquals(body.getEtag(), body.getGzipEtag());
+    assertEquals(body.getEtag().tag() + "-gz", body.getGzipEtag().tag());
+  }
+}
@@ -6,13 +6,34 @@ import akka.actor.ActorSystem;
 
 import akka.http.javadsl.model.*;
 import akka.http.javadsl.testkit.JUnitRouteTest;
+import akka.http.javadsl.model.headers.AcceptEncoding;
+import akka.http.javadsl.model.headers.ContentEncoding;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.EntityTagRange;
+import akka.http.javadsl.model.headers.HttpEncodings;
+import akka.http.javadsl.model.headers.IfNoneMatch;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RemoteAddress;
+import akka.http.javadsl.model.headers.XForwardedFor;
 import akka.http.javadsl.testkit.TestRoute;
+import akka.http.javadsl.testkit.TestRouteResult;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import org.junit.Before;
 import org.junit.Test;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.StatusCodes;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
 
 
 public class RestApiTest extends JUnitRouteTest {
@@ -76,6 +97,30 @@ public class RestApiTest extends JUnitRouteTest {
         .assertEntity("{\"entries\":[{\"id\":1},{\"id\":2}],\"event\":\"RHCP\"}");
   }
 
+  @Test
+  public void testBuyAnyEventName() {
+    // Not a valid actor name as it is
+    String path = "/events/%24igur%20R%C3%B3s";
+    appRoute.run(HttpRequest.POST(path)
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+    appRoute.run(HttpRequest.POST(path + "/tickets")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 2}"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"entries\":[{\"id\":1},{\"id\":2}],\"event\":\"$igur Rós\"}");
+
+    // Once its seller has stopped, the name can be used again
+    appRoute.run(HttpRequest.DELETE(path))
+        .assertStatusCode(StatusCodes.OK);
+    appRoute.run(HttpRequest.POST(path)
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 1}"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"name\":\"$igur Rós\",\"tickets\":1}");
+  }
+
   @Test
   public void testBuyAndGetEvents() {
     appRoute.run(HttpRequest.POST("/events/RHCP")
@@ -241,4 +286,366 @@ public class RestApiTest extends JUnitRouteTest {
         .assertMediaType("text/plain")
         .assertEntity("The requested resource could not be found but may be available again in the future.");
   }
+
+  @Test
+  public void testGetEventsNotModified() {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    TestRouteResult first = appRoute.run(HttpRequest.GET("/events"))
+        .assertStatusCode(StatusCodes.OK)
+        .assertEntity("{\"events\":[{\"name\":\"RHCP\",\"tickets\":3}]}");
+    ETag etag = first.header(ETag.class);
+
+    appRoute.run(HttpRequest.GET("/events").addHeader(IfNoneMatch.create(EntityTagRange.create(etag.etag()))))
+        .assertStatusCode(StatusCodes.NOT_MODIFIED);
+
+    // Buying changes the catalog, the old ETag no longer matches
+    appRoute.run(HttpRequest.POST("/events/RHCP/tickets")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 1}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    appRoute.run(HttpRequest.GET("/events").addHeader(IfNoneMatch.create(EntityTagRange.create(etag.etag()))))
+        .assertStatusCode(StatusCodes.OK)
+        .assertEntity("{\"events\":[{\"name\":\"RHCP\",\"tickets\":2}]}");
+  }
+
+  @Test
+  public void testGetAEventGzip() throws IOException {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    TestRouteResult result = appRoute.run(HttpRequest.GET("/events/RHCP/")
+        .addHeader(AcceptEncoding.create(HttpEncodings.GZIP)))
+        .assertStatusCode(StatusCodes.OK)
+        .assertMediaType("application/json")
+        .assertHeaderExists(ContentEncoding.create(HttpEncodings.GZIP));
+    String identityTag = appRoute.run(HttpRequest.GET("/events/RHCP/")).header(ETag.class).etag().tag();
+    assertEquals(identityTag + "-gz", result.header(ETag.class).etag().tag());
+
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(result.entityBytes().toArray()))) {
+      ByteArrayOutputStream json = new ByteArrayOutputStream();
+      byte[] buffer = new byte[256];
+      for (int n; (n = in.read(buffer)) > 0; ) {
+        json.write(buffer, 0, n);
+      }
+      assertEquals("{\"name\":\"RHCP\",\"tickets\":3}", json.toString("UTF-8"));
+    }
+  }
+
+  @Test
+  public void testCreateEventMalformed() {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": three}"))
+        .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testHoldAndConfirm() {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    appRoute.run(HttpRequest.POST("/events/RHCP/holds")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 2}"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"entries\":[{\"id\":1},{\"id\":2}],\"event\":\"RHCP\",\"hold\":1}");
+
+    // Held tickets are out of the sale
+    appRoute.run(HttpRequest.GET("/events/RHCP/"))
+        .assertStatusCode(StatusCodes.OK)
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":1}");
+
+    appRoute.run(HttpRequest.POST("/events/RHCP/holds/1/"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"entries\":[{\"id\":1},{\"id\":2}],\"event\":\"RHCP\"}");
+
+    // A confirmed hold can be neither confirmed nor released again
+    appRoute.run(HttpRequest.POST("/events/RHCP/holds/1/"))
+        .assertStatusCode(StatusCodes.NOT_FOUND);
+    appRoute.run(HttpRequest.DELETE("/events/RHCP/holds/1/"))
+        .assertStatusCode(StatusCodes.NOT_FOUND);
+
+    appRoute.run(HttpRequest.GET("/events/RHCP/"))
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":1}");
+  }
+
+  @Test
+  public void testHoldAndRelease() {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    appRoute.run(HttpRequest.POST("/events/RHCP/holds")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 4}"))
+        .assertStatusCode(StatusCodes.NOT_FOUND);
+
+    appRoute.run(HttpRequest.POST("/events/RHCP/holds")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    appRoute.run(HttpRequest.DELETE("/events/RHCP/holds/1/"))
+        .assertStatusCode(StatusCodes.OK)
+        .assertEntity("{\"entries\":[{\"id\":1},{\"id\":2},{\"id\":3}],\"event\":\"RHCP\"}");
+
+    appRoute.run(HttpRequest.GET("/events/RHCP/"))
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":3}");
+  }
+
+  @Test
+  public void testHoldExpires() throws InterruptedException {
+    Config config = ConfigFactory.parseString("goticks.holds { timeout = 300ms, tick = 50ms }")
+        .withFallback(ConfigFactory.load());
+    ActorSystem system = ActorSystem.create("go-ticks", config);
+    try {
+      TestRoute route = testRoute(new RestApi(system, Duration.ofSeconds(5)).createRoute());
+
+      route.run(HttpRequest.POST("/events/RHCP")
+          .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+              "{\"tickets\": 3}"))
+          .assertStatusCode(StatusCodes.CREATED);
+      route.run(HttpRequest.POST("/events/RHCP/holds")
+          .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+              "{\"tickets\": 2}"))
+          .assertStatusCode(StatusCodes.CREATED);
+      route.run(HttpRequest.GET("/events/RHCP/"))
+          .assertEntity("{\"name\":\"RHCP\",\"tickets\":1}");
+
+      // The cached body is dropped when the hold expires
+      String event = "";
+      for (int i = 0; i < 50 && !event.contains("\"tickets\":3"); i++) {
+        Thread.sleep(100);
+        event = route.run(HttpRequest.GET("/events/RHCP/")).entityString();
+      }
+      assertEquals("{\"name\":\"RHCP\",\"tickets\":3}", event);
+
+      route.run(HttpRequest.POST("/events/RHCP/holds/1/"))
+          .assertStatusCode(StatusCodes.NOT_FOUND);
+    } finally {
+      TestKit.shutdownActorSystem(system);
+    }
+  }
+
+  // Whether the seller of the event is running, waiting up to a second for it to be as expected
+  private static boolean sellerRunning(ActorSystem system, String event, boolean expected) throws InterruptedException {
+    boolean running = !expected;
+    for (int i = 0; i < 20 && running != expected; i++) {
+      Thread.sleep(50);
+      running = system.actorSelection("/user/boxOfficeActor/" + event)
+          .resolveOneCS(Duration.ofSeconds(1))
+          .handle((seller, failure) -> failure == null)
+          .toCompletableFuture().join();
+    }
+    return running;
+  }
+
+  @Test
+  public void testSellerStartedOnDemandAndPassivated() throws InterruptedException {
+    Config config = ConfigFactory.parseString("goticks.passivation.idle-timeout = 200ms")
+        .withFallback(ConfigFactory.load());
+    ActorSystem system = ActorSystem.create("go-ticks", config);
+    try {
+      TestRoute route = testRoute(new RestApi(system, Duration.ofSeconds(5)).createRoute());
+
+      route.run(HttpRequest.POST("/events/RHCP")
+          .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+              "{\"sections\": [{\"name\": \"A\", \"rows\": [2, 3]}]}"))
+          .assertStatusCode(StatusCodes.CREATED);
+      assertEquals(false, sellerRunning(system, "RHCP", false));
+      route.run(HttpRequest.GET("/events/RHCP/"))
+          .assertEntity("{\"name\":\"RHCP\",\"tickets\":5}");
+
+      route.run(HttpRequest.POST("/events/RHCP/tickets")
+          .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+              "{\"tickets\": 2}"))
+          .assertEntity("{\"entries\":[{\"id\":1,\"seat\":{\"number\":1,\"row\":1,\"section\":\"A\"}},"
+              + "{\"id\":2,\"seat\":{\"number\":2,\"row\":1,\"section\":\"A\"}}],\"event\":\"RHCP\"}");
+      assertEquals(true, sellerRunning(system, "RHCP", true));
+
+      // Idle, the seller stops and its event keeps the seats sold
+      assertEquals(false, sellerRunning(system, "RHCP", false));
+      route.run(HttpRequest.GET("/events"))
+          .assertEntity("{\"events\":[{\"name\":\"RHCP\",\"tickets\":3}]}");
+      route.run(HttpRequest.POST("/events/RHCP/tickets")
+          .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+              "{\"tickets\": 3}"))
+          .assertEntity("{\"entries\":[{\"id\":3,\"seat\":{\"number\":1,\"row\":2,\"section\":\"A\"}},"
+              + "{\"id\":4,\"seat\":{\"number\":2,\"row\":2,\"section\":\"A\"}},"
+              + "{\"id\":5,\"seat\":{\"number\":3,\"row\":2,\"section\":\"A\"}}],\"event\":\"RHCP\"}");
+      route.run(HttpRequest.GET("/events/RHCP/"))
+          .assertEntity("{\"name\":\"RHCP\",\"tickets\":0}");
+    } finally {
+      TestKit.shutdownActorSystem(system);
+    }
+  }
+
+  @Test
+  public void testImportCsv() {
+    appRoute.run(HttpRequest.POST("/events/Nirvana")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 1}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    appRoute.run(HttpRequest.POST("/events/")
+        .withEntity(HttpEntities.create(ContentTypes.create(MediaTypes.TEXT_CSV, HttpCharsets.UTF_8),
+            "name,tickets\nRHCP,3\r\n\n\"Dj, \"\"Madlib\"\"\",2\nNirvana,5\nNoTickets,x\n")))
+        .assertStatusCode(StatusCodes.OK)
+        .assertMediaType("application/x-ndjson")
+        .assertEntity("{\"line\":2,\"name\":\"RHCP\",\"result\":\"created\"}\n"
+            + "{\"line\":4,\"name\":\"Dj, \\\"Madlib\\\"\",\"result\":\"created\"}\n"
+            + "{\"line\":5,\"name\":\"Nirvana\",\"result\":\"exists\"}\n"
+            + "{\"line\":6,\"message\":\"Number of tickets expected\",\"result\":\"invalid\"}\n"
+            + "{\"created\":2,\"exists\":1,\"invalid\":1}\n");
+
+    appRoute.run(HttpRequest.GET("/events/RHCP/"))
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":3}");
+  }
+
+  @Test
+  public void testImportNdjson() {
+    StringBuilder body = new StringBuilder();
+    for (int i = 1; i <= 2500; i++) {
+      body.append("{\"name\":\"event-").append(i).append("\",\"tickets\":").append(i).append("}\n");
+    }
+    body.append("{\"name\":\"seated\",\"sections\":[{\"name\":\"A\",\"rows\":[2,3]}]}\n");
+    body.append("{\"name\":\"event-1\",\"tickets\":1}\n");
+    body.append("{\"tickets\":1}");
+
+    String results = appRoute.run(HttpRequest.POST("/events")
+        .withEntity(HttpEntities.create(EventImport.NDJSON.toContentType(), body.toString())))
+        .assertStatusCode(StatusCodes.OK)
+        .entityString();
+    String[] lines = results.split("\n");
+    assertEquals(2504, lines.length);
+    assertEquals("{\"line\":2501,\"name\":\"seated\",\"result\":\"created\"}", lines[2500]);
+    assertEquals("{\"line\":2502,\"name\":\"event-1\",\"result\":\"exists\"}", lines[2501]);
+    assertEquals("{\"created\":2501,\"exists\":1,\"invalid\":1}", lines[2503]);
+
+    appRoute.run(HttpRequest.GET("/events/event-2500/"))
+        .assertEntity("{\"name\":\"event-2500\",\"tickets\":2500}");
+    appRoute.run(HttpRequest.GET("/events/seated/"))
+        .assertEntity("{\"name\":\"seated\",\"tickets\":5}");
+  }
+
+  @Test
+  public void testImportUnsupportedType() {
+    appRoute.run(HttpRequest.POST("/events/")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"tickets\": 1}"))
+        .assertStatusCode(StatusCodes.UNSUPPORTED_MEDIA_TYPE);
+  }
+
+  @Test
+  public void testBuySeatsTogether() {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"sections\": [{\"name\": \"A\", \"rows\": [2, 3]}]}"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":5}");
+
+    appRoute.run(HttpRequest.POST("/events/RHCP/tickets")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 1}"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"entries\":[{\"id\":1,\"seat\":{\"number\":1,\"row\":1,\"section\":\"A\"}}],\"event\":\"RHCP\"}");
+
+    // The seat left in the first row is not next to the second row
+    appRoute.run(HttpRequest.POST("/events/RHCP/tickets")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 2}"))
+        .assertStatusCode(StatusCodes.CREATED)
+        .assertEntity("{\"entries\":[{\"id\":3,\"seat\":{\"number\":1,\"row\":2,\"section\":\"A\"}},"
+            + "{\"id\":4,\"seat\":{\"number\":2,\"row\":2,\"section\":\"A\"}}],\"event\":\"RHCP\"}");
+
+    // Two seats are left, but apart
+    appRoute.run(HttpRequest.POST("/events/RHCP/tickets")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 2}"))
+        .assertStatusCode(StatusCodes.NOT_FOUND);
+
+    appRoute.run(HttpRequest.GET("/events/RHCP/"))
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":2}");
+  }
+
+  @Test
+  public void testBuyRetriedWithIdempotencyKey() {
+    appRoute.run(HttpRequest.POST("/events/RHCP")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 3}"))
+        .assertStatusCode(StatusCodes.CREATED);
+
+    for (int i = 0; i < 2; i++) {
+      appRoute.run(HttpRequest.POST("/events/RHCP/tickets")
+          .addHeader(RawHeader.create("Idempotency-Key", "order-1"))
+          .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+              "{\"tickets\": 2}"))
+          .assertStatusCode(StatusCodes.CREATED)
+          .assertEntity("{\"entries\":[{\"id\":1},{\"id\":2}],\"event\":\"RHCP\"}");
+    }
+
+    // The retry did not buy again
+    appRoute.run(HttpRequest.GET("/events/RHCP/"))
+        .assertEntity("{\"name\":\"RHCP\",\"tickets\":1}");
+
+    appRoute.run(HttpRequest.POST("/events/RHCP/tickets")
+        .addHeader(RawHeader.create("Idempotency-Key", "order-1"))
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+            "{\"tickets\": 1}"))
+        .assertStatusCode(StatusCodes.UNPROCESSABLE_ENTITY);
+  }
+
+  @Test
+  public void testRateLimited() throws UnknownHostException {
+    Config config = ConfigFactory.parseString("goticks.rate-limits { routes.get-events { rate = 0.01, burst = 2 }, "
+        + "api-keys = [bot, user], trusted-proxies = [\"10.0.0.1\"] }")
+        .withFallback(ConfigFactory.load());
+    ActorSystem system = ActorSystem.create("go-ticks", config);
+    try {
+      TestRoute route = testRoute(new RestApi(system, Duration.ofSeconds(5)).createRoute());
+
+      for (int i = 0; i < 2; i++) {
+        route.run(HttpRequest.GET("/events").addHeader(RawHeader.create("X-Api-Key", "bot")))
+            .assertStatusCode(StatusCodes.OK);
+      }
+      route.run(HttpRequest.GET("/events").addHeader(RawHeader.create("X-Api-Key", "bot")))
+          .assertStatusCode(StatusCodes.TOO_MANY_REQUESTS)
+          .assertHeaderKindExists("Retry-After");
+
+      // Other clients and routes are not limited
+      route.run(HttpRequest.GET("/events").addHeader(RawHeader.create("X-Api-Key", "user")))
+          .assertStatusCode(StatusCodes.OK);
+      route.run(HttpRequest.GET("/events/RHCP/").addHeader(RawHeader.create("X-Api-Key", "bot")))
+          .assertStatusCode(StatusCodes.NOT_FOUND);
+
+      // Made-up keys and forwarded addresses are ignored, the connection is the client
+      for (int i = 0; i < 2; i++) {
+        route.run(fromPeer("10.0.0.5", "10.0.1." + i)).assertStatusCode(StatusCodes.OK);
+      }
+      route.run(fromPeer("10.0.0.5", "10.0.1.9").addHeader(RawHeader.create("X-Api-Key", "random")))
+          .assertStatusCode(StatusCodes.TOO_MANY_REQUESTS);
+
+      // Behind a trusted proxy, the forwarded address is
+      for (int i = 0; i < 3; i++) {
+        route.run(fromPeer("10.0.0.1", "10.0.2." + i)).assertStatusCode(StatusCodes.OK);
+      }
+    } finally {
+      TestKit.shutdownActorSystem(system);
+    }
+  }
+
+  private static HttpRequest fromPeer(String peer, String forwardedFor) throws UnknownHostException {
+    return HttpRequest.GET("/events")
+        .addHeader(RemoteAddress.create(akka.http.javadsl.model.RemoteAddress.create(InetAddress.getByName(peer))))
+        .addHeader(XForwardedFor.create(akka.http.javadsl.model.RemoteAddress.create(InetAddress.getByName(forwardedFor))));
+  }
 }
@@ -0,0 +1,135 @@
+package com.goticks;
+
+import com.goticks.ITicketSeller.Seat;
+import com.goticks.ITicketSeller.Ticket;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SeatMapTest {
+
+  // Rows of the given lengths in one section, tickets numbered from 1
+  private static List<Ticket> rows(int... lengths) {
+    List<Ticket> tickets = new ArrayList<>();
+    for (int row = 0; row < lengths.length; row++) {
+      for (int seat = 1; seat <= lengths[row]; seat++) {
+        tickets.add(new Ticket(tickets.size() + 1, new Seat("A", row + 1, seat)));
+      }
+    }
+    return tickets;
+  }
+
+  private static List<Integer> ids(List<Ticket> tickets) {
+    return tickets.stream().map(Ticket::getId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testTakesTheFirstBlockWithinARow() {
+    // Rows 1-3, 4-8 and 9-10
+    SeatMap map = new SeatMap().with(rows(3, 5, 2));
+
+    assertEquals(Arrays.asList(1, 2), ids(map.take(2)));
+    // Seat 3 and the start of row 2 are not adjacent
+    assertEquals(Arrays.asList(4, 5, 6), ids(map.take(3)));
+    assertEquals(Arrays.asList(7, 8), ids(map.take(2)));
+    // 3, 9 and 10 are free, but not in a row
+    assertEquals(Arrays.asList(), ids(map.take(3)));
+    assertEquals(3, map.available());
+    assertEquals(Arrays.asList(9, 10), ids(map.take(2)));
+    assertEquals(Arrays.asList(3), ids(map.take(1)));
+  }
+
+  @Test
+  public void testFreedSeatsJoinTheirRow() {
+    SeatMap map = new SeatMap().with(rows(6));
+    List<Ticket> first = map.take(2);
+    List<Ticket> middle = map.take(2);
+    map.take(2);
+    assertEquals(0, map.available());
+
+    map.free(first);
+    assertEquals(Arrays.asList(), ids(map.take(3)));
+    map.free(middle);
+    assertEquals(Arrays.asList(1, 2, 3, 4), ids(map.take(4)));
+  }
+
+  @Test
+  public void testGeneralAdmissionIsTakenApart() {
+    List<Ticket> tickets = IntStream.rangeClosed(1, 5).mapToObj(Ticket::new).collect(Collectors.toList());
+    SeatMap map = new SeatMap().with(tickets);
+    map.take(1);
+    List<Ticket> second = map.take(1);
+    map.take(1);
+    map.free(second);
+
+    assertEquals(Arrays.asList(2, 4, 5), ids(map.take(3)));
+  }
+
+  @Test
+  public void testAgainstAScan() {
+    int[] lengths = new Random(7).ints(40, 1, 50).toArray();
+    List<Ticket> tickets = rows(lengths);
+    SeatMap map = new SeatMap().with(tickets);
+    boolean[] free = new boolean[tickets.size()];
+    Arrays.fill(free, true);
+    Random random = new Random(42);
+    List<List<Ticket>> taken = new ArrayList<>();
+
+    for (int step = 0; step < 5_000; step++) {
+      if (!taken.isEmpty() && random.nextInt(3) == 0) {
+        List<Ticket> block = taken.remove(random.nextInt(taken.size()));
+        map.free(block);
+        block.forEach(ticket -> free[ticket.getId() - 1] = true);
+        continue;
+      }
+      int count = 1 + random.nextInt(8);
+      int expected = firstBlock(tickets, free, count);
+      List<Ticket> block = map.take(count);
+      if (expected < 0) {
+        assertTrue(block.isEmpty());
+      } else {
+        assertEquals(expected + 1, block.get(0).getId());
+        assertEquals(count, block.size());
+        block.forEach(ticket -> free[ticket.getId() - 1] = false);
+        taken.add(block);
+      }
+    }
+  }
+
+  private static int firstBlock(List<Ticket> tickets, boolean[] free, int count) {
+    int run = 0;
+    for (int i = 0; i < free.length; i++) {
+      boolean rowStart = i == 0 || tickets.get(i).getSeat().getRow() != tickets.get(i - 1).getSeat().getRow();
+      run = free[i] ? (rowStart ? 1 : run + 1) : 0;
+      if (run == count) return i - count + 1;
+    }
+    return -1;
+  }
+
+  @Test
+  public void testRestoresTheFreeRuns() {
+    SeatMap map = new SeatMap().with(rows(3, 5, 2));
+    map.take(2);
+    List<Ticket> middle = map.take(3);
+    map.take(2);
+    map.free(middle.subList(1, 2));
+
+    // 3, 5, 9 and 10
+    int[] runs = map.freeRuns();
+    assertEquals("[2, 1, 4, 1, 8, 2]", Arrays.toString(runs));
+
+    SeatMap restored = SeatMap.restore(rows(3, 5, 2), runs);
+    assertEquals(4, restored.available());
+    assertEquals(Arrays.asList(9, 10), ids(restored.take(2)));
+    assertEquals(Arrays.asList(3), ids(restored.take(1)));
+    assertEquals(10, SeatMap.restore(rows(3, 5, 2), null).available());
+  }
+}
@@ -0,0 +1,96 @@
+package com.goticks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.dispatch.Envelope;
+import akka.testkit.javadsl.TestKit;
+import com.goticks.ITicketSeller.Ticket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TicketSellerMailboxTest {
+
+  private ActorSystem system;
+
+  @Before
+  public void setUp() {
+    system = ActorSystem.create("ticket-seller-mailbox");
+  }
+
+  @After
+  public void tearDown() {
+    TestKit.shutdownActorSystem(system);
+  }
+
+  private void enqueue(TicketSellerMailbox.SellerQueue queue, Object message, ActorRef sender) {
+    queue.enqueue(ActorRef.noSender(), Envelope.apply(message, sender, system));
+  }
+
+  // The tickets of the event in the next reply of the seller
+  private static int tickets(TestKit probe) {
+    Optional<?> reply = probe.expectMsgClass(Optional.class);
+    return ((IBoxOffice.Event) reply.get()).getTickets();
+  }
+
+  @Test
+  public void testCancelThenPurchasesThenReads() {
+    TicketSellerMailbox.SellerQueue queue = new TicketSellerMailbox.SellerQueue(system);
+    ActorRef first = new TestKit(system).getRef();
+    ActorRef second = new TestKit(system).getRef();
+    ActorRef buyer = new TestKit(system).getRef();
+
+    enqueue(queue, new ITicketSeller.GetEvent(), first);
+    enqueue(queue, PoisonPill.getInstance(), ActorRef.noSender());
+    enqueue(queue, new ITicketSeller.Buy(1), buyer);
+    enqueue(queue, new ITicketSeller.GetEvent(), second);
+    enqueue(queue, new ITicketSeller.Buy(2), buyer);
+    enqueue(queue, new ITicketSeller.Cancel(), buyer);
+    assertEquals(6, queue.numberOfMessages());
+
+    assertEquals(ITicketSeller.Cancel.class, queue.dequeue().message().getClass());
+    assertEquals(1, ((ITicketSeller.Buy) queue.dequeue().message()).getTickets());
+    assertEquals(2, ((ITicketSeller.Buy) queue.dequeue().message()).getTickets());
+    // Both reads at once
+    TicketSellerMailbox.GetEvents reads = (TicketSellerMailbox.GetEvents) queue.dequeue().message();
+    assertEquals(Arrays.asList(first, second), reads.getSenders());
+    assertEquals(PoisonPill.getInstance(), queue.dequeue().message());
+    assertFalse(queue.hasMessages());
+    assertNull(queue.dequeue());
+  }
+
+  @Test
+  public void testSellerAnswersEveryReader() {
+    ActorRef seller = system.actorOf(TicketSeller.props("RHCP",
+        Duration.ofMinutes(1), Duration.ofSeconds(1), Duration.ofMinutes(1)), "RHCP");
+    TestKit buyer = new TestKit(system);
+    TestKit first = new TestKit(system);
+    TestKit second = new TestKit(system);
+
+    seller.tell(new ITicketSeller.Restore(IntStream.rangeClosed(1, 5).mapToObj(Ticket::new)
+        .collect(Collectors.toList()), null), buyer.getRef());
+    seller.tell(new ITicketSeller.GetEvent(), first.getRef());
+    seller.tell(new ITicketSeller.Buy(2), buyer.getRef());
+    seller.tell(new ITicketSeller.GetEvent(), second.getRef());
+
+    assertEquals(2, buyer.expectMsgClass(ITicketSeller.Tickets.class).getEntries().size());
+    first.expectMsgClass(Optional.class);
+    assertEquals(3, tickets(second));
+
+    buyer.watch(seller);
+    seller.tell(new ITicketSeller.Cancel(), buyer.getRef());
+    assertEquals(3, tickets(buyer));
+    buyer.expectTerminated(seller);
+  }
+}
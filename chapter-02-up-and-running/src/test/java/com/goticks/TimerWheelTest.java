@@ -0,0 +1,73 @@
+package com.goticks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+  private static final long TICK = 1_000;
+
+  private static List<Long> advance(TimerWheel wheel, long now) {
+    List<Long> expired = new ArrayList<>();
+    wheel.advance(now, expired::add);
+    return expired;
+  }
+
+  @Test
+  public void testExpiresAtTheFirstTickAfterTheDeadline() {
+    TimerWheel wheel = new TimerWheel(TICK, 0);
+    wheel.schedule(1, 2_500);
+    wheel.schedule(2, 3_000);
+    wheel.schedule(3, 0);
+
+    assertEquals(Arrays.asList(3L), advance(wheel, 1_000));
+    assertEquals(Arrays.asList(), advance(wheel, 2_999));
+    assertEquals(Arrays.asList(1L, 2L), advance(wheel, 3_000));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testExpiresInBatchesAcrossLevels() {
+    // Deadlines up to past the horizon of the wheel, checked against a sorted list
+    TimerWheel wheel = new TimerWheel(TICK, 0);
+    Random random = new Random(42);
+    long[] deadlines = new long[10_000];
+    for (int i = 0; i < deadlines.length; i++) {
+      long ticks = random.nextInt(4) == 0 ? random.nextInt(64 * 64 * 64 * 64 + 100_000) : random.nextInt(5_000);
+      deadlines[i] = 1 + ticks * TICK;
+      wheel.schedule(i, deadlines[i]);
+    }
+
+    int expired = 0;
+    for (long now = 0; wheel.size() > 0; now += 997 * TICK) {
+      final long time = now;
+      int[] count = {0};
+      wheel.advance(now, id -> {
+        long deadline = deadlines[(int) id];
+        // Due, and not due before the previous advance
+        assertTrue(deadline <= time);
+        assertTrue(deadline > time - 997 * TICK);
+        count[0]++;
+      });
+      expired += count[0];
+    }
+    assertEquals(deadlines.length, expired);
+  }
+
+  @Test
+  public void testSkipsIdleTicks() {
+    TimerWheel wheel = new TimerWheel(TICK, 0);
+    advance(wheel, 1_000_000 * TICK);
+
+    wheel.schedule(7, 1_000_010 * TICK);
+    assertEquals(Arrays.asList(), advance(wheel, 1_000_009 * TICK));
+    assertEquals(Arrays.asList(7L), advance(wheel, 1_000_010 * TICK));
+  }
+}
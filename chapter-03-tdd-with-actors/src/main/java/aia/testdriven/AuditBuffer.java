@@ -0,0 +1,227 @@
+package aia.testdriven;
+
+import io.vavr.collection.List;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An append-only buffer of strings, stored in chunks so that an append never copies
+ * what was stored before. Entries are numbered from 0 in the order they were appended.
+ *
+ * With a capacity, the buffer either forgets its oldest entries (DROP_OLDEST) or refuses
+ * new ones (REJECT_NEW) once full. A chunk whose entries have all been forgotten is kept
+ * to be reused by the next appends.
+ *
+ * In compact mode, the strings are stored as UTF-8 in byte arrays shared by the entries of
+ * a chunk, instead of one String object each, and decoded again when read.
+ */
+public final class AuditBuffer {
+
+    public enum Eviction {DROP_OLDEST, REJECT_NEW}
+
+    static final int CHUNK_ENTRIES = 1024;
+    static final int ARENA_BYTES = 64 * 1024;
+
+    private final long capacity;
+    private final Eviction eviction;
+    private final boolean compact;
+
+    private final ArrayList<Chunk> chunks = new ArrayList<>();
+    private Chunk spare = null;
+    private int head = 0;        // Entries of the first chunk already forgotten
+    private long first = 0;      // Number of the oldest entry kept
+    private long next = 0;       // Number of the next entry appended
+    private long rejected = 0;
+
+    public AuditBuffer() {
+        this(Long.MAX_VALUE, Eviction.DROP_OLDEST, false);
+    }
+
+    public AuditBuffer(long capacity, Eviction eviction, boolean compact) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.eviction = eviction;
+        this.compact = compact;
+    }
+
+    /**
+     * @return false if the buffer is full and rejects new entries
+     */
+    public boolean append(String entry) {
+        if (size() == capacity) {
+            if (eviction == Eviction.REJECT_NEW) {
+                rejected++;
+                return false;
+            }
+            evictOldest();
+        }
+
+        if (chunks.isEmpty() || !last().append(entry)) {
+            final Chunk chunk = newChunk(entry);
+            chunk.append(entry);
+            chunks.add(chunk);
+        }
+        next++;
+        return true;
+    }
+
+    public long size() {
+        return next - first;
+    }
+
+    // Number of the oldest entry still in the buffer
+    public long first() {
+        return first;
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the entries numbered from {@code from}, at most {@code count} of them; the
+     * entries already forgotten are skipped
+     */
+    public List<String> range(long from, int count) {
+        final long start = Math.max(from, first);
+        final long end = Math.min(next, from + count);
+        if (start >= end) return List.empty();
+
+        // Walk the chunks backwards to prepend, which is O(1) for a vavr List
+        List<String> slice = List.empty();
+        long chunkEnd = next;
+        for (int c = chunks.size() - 1; c >= 0 && chunkEnd > start; c--) {
+            final Chunk chunk = chunks.get(c);
+            final long chunkStart = chunkEnd - chunk.size() + (c == 0 ? head : 0);
+            final int offset = c == 0 ? head : 0;
+            for (long n = Math.min(end, chunkEnd) - 1; n >= Math.max(start, chunkStart); n--) {
+                slice = slice.prepend(chunk.get(offset + (int) (n - chunkStart)));
+            }
+            chunkEnd = chunkStart;
+        }
+        return slice;
+    }
+
+    public List<String> tail(int count) {
+        return range(Math.max(first, next - count), count);
+    }
+
+    public List<String> toList() {
+        return range(first, (int) Math.min(Integer.MAX_VALUE, size()));
+    }
+
+    private Chunk last() {
+        return chunks.get(chunks.size() - 1);
+    }
+
+    private void evictOldest() {
+        first++;
+        head++;
+        final Chunk oldest = chunks.get(0);
+        if (head == oldest.size()) {
+            chunks.remove(0);
+            head = 0;
+            oldest.clear();
+            spare = oldest;
+        }
+    }
+
+    private Chunk newChunk(String entry) {
+        if (spare != null && (!compact || ((ByteChunk) spare).fits(entry))) {
+            final Chunk chunk = spare;
+            spare = null;
+            return chunk;
+        }
+        if (compact) {
+            // An entry larger than an arena gets a chunk of its own
+            return new ByteChunk(Math.max(ARENA_BYTES, utf8Length(entry)));
+        }
+        return new RefChunk();
+    }
+
+    private static int utf8Length(String entry) {
+        return entry.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private interface Chunk {
+        // False if the chunk is full
+        boolean append(String entry);
+
+        String get(int i);
+
+        int size();
+
+        void clear();
+    }
+
+    private static final class RefChunk implements Chunk {
+        private final String[] entries = new String[CHUNK_ENTRIES];
+        private int size = 0;
+
+        @Override
+        public boolean append(String entry) {
+            if (size == entries.length) return false;
+            entries[size++] = entry;
+            return true;
+        }
+
+        @Override
+        public String get(int i) {
+            return entries[i];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(entries, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private static final class ByteChunk implements Chunk {
+        private final byte[] arena;
+        private final int[] ends = new int[CHUNK_ENTRIES];
+        private int size = 0;
+
+        ByteChunk(int bytes) {
+            this.arena = new byte[bytes];
+        }
+
+        boolean fits(String entry) {
+            return utf8Length(entry) <= arena.length;
+        }
+
+        @Override
+        public boolean append(String entry) {
+            if (size == ends.length) return false;
+            final byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+            final int start = size == 0 ? 0 : ends[size - 1];
+            if (arena.length - start < bytes.length) return false;
+            System.arraycopy(bytes, 0, arena, start, bytes.length);
+            ends[size++] = start + bytes.length;
+            return true;
+        }
+
+        @Override
+        public String get(int i) {
+            final int start = i == 0 ? 0 : ends[i - 1];
+            return new String(arena, start, ends[i] - start, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
+        }
+    }
+}
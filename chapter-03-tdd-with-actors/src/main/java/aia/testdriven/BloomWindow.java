@@ -0,0 +1,106 @@
+package aia.testdriven;
+
+import java.util.Arrays;
+
+/**
+ * A memory-bounded, probabilistic window over the last event ids.
+ *
+ * Two Bloom filters take turns: ids are added to the current one and looked up in both.
+ * Once the current filter holds {@code expectedIds} ids, the previous one is dropped and
+ * cleared to become the new current one, so the window remembers between
+ * {@code expectedIds} and {@code 2 * expectedIds} of the last distinct ids.
+ *
+ * A unique id is wrongly taken for a duplicate with a probability of at most about
+ * {@code falsePositiveRate}; a duplicate inside the window is never let through.
+ */
+public final class BloomWindow implements DedupWindow {
+
+    private static final double LN2 = Math.log(2);
+
+    private final int expectedIds;
+    private final int bits;
+    private final int hashes;
+
+    private long[] current;
+    private long[] previous;
+    private int currentIds = 0;
+    private int previousIds = 0;
+    private long evictions = 0;
+
+    public BloomWindow(int expectedIds, double falsePositiveRate) {
+        if (expectedIds < 1) throw new IllegalArgumentException("expectedIds must be positive: " + expectedIds);
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+
+        // Both filters are looked up, so each one gets half of the false positive budget
+        final double bitsPerFilter = -expectedIds * Math.log(falsePositiveRate / 2) / (LN2 * LN2);
+        this.expectedIds = expectedIds;
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.ceil(bitsPerFilter / 64) * 64);
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedIds * LN2));
+        this.current = new long[bits / 64];
+        this.previous = new long[bits / 64];
+    }
+
+    @Override
+    public boolean add(long id) {
+        final long h = mix(id);
+        final int h1 = (int) h;
+        final int h2 = (int) (h >>> 32);
+
+        if (mightContain(current, h1, h2) || mightContain(previous, h1, h2)) return false;
+
+        if (currentIds == expectedIds) rotate();
+        for (int i = 0; i < hashes; i++) {
+            final int bit = bit(h1, h2, i);
+            current[bit >>> 6] |= 1L << bit;
+        }
+        currentIds++;
+        return true;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the memory used by both filters
+     */
+    public long sizeInBytes() {
+        return 2L * bits / 8;
+    }
+
+    private void rotate() {
+        final long[] dropped = previous;
+        evictions += previousIds;
+        previous = current;
+        previousIds = currentIds;
+        Arrays.fill(dropped, 0L);
+        current = dropped;
+        currentIds = 0;
+    }
+
+    private boolean mightContain(long[] filter, int h1, int h2) {
+        for (int i = 0; i < hashes; i++) {
+            final int bit = bit(h1, h2, i);
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // Double hashing: the i-th hash is h1 + i * h2
+    private int bit(int h1, int h2, int i) {
+        return (int) (((h1 + (long) i * h2) & Long.MAX_VALUE) % bits);
+    }
+
+    // Finalizer of MurmurHash3, so that close ids end up far apart
+    private static long mix(long id) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e4ca2L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
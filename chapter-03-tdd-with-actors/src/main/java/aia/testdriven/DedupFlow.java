@@ -0,0 +1,100 @@
+package aia.testdriven;
+
+import aia.testdriven.FilteringActor.Event;
+import akka.NotUsed;
+import akka.japi.function.Function;
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.javadsl.Flow;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * The FilteringActor as a stream stage: only the first element with a given id among the
+ * last ones goes downstream, the others are dropped. Each materialization gets its own
+ * DedupWindow, so the default flow does the same work as FilteringActor.props(nextActor, bufferSize),
+ * with backpressure instead of a mailbox.
+ */
+public final class DedupFlow {
+
+    private DedupFlow() {
+    }
+
+    // Drops the events already seen among the last bufferSize unique ones
+    public static Flow<Event, Event, NotUsed> create(int bufferSize) {
+        return create(event -> event.id, () -> new EventWindow(bufferSize));
+    }
+
+    public static <T> Flow<T, T, NotUsed> create(ToLongFunction<T> id, Supplier<DedupWindow> window) {
+        return Flow.fromGraph(new Dedup<>(id, window));
+    }
+
+    // Keeps one window per key, each key being deduplicated in its own substream
+    public static <T, K> Flow<T, T, NotUsed> perKey(Function<T, K> key, int maxKeys,
+                                                    ToLongFunction<T> id, Supplier<DedupWindow> window) {
+        return Flow.<T>create()
+                .groupBy(maxKeys, key)
+                .via(create(id, window))
+                .mergeSubstreams();
+    }
+
+    private static final class Dedup<T> extends GraphStage<FlowShape<T, T>> {
+
+        private final Inlet<T> in = Inlet.create("Dedup.in");
+        private final Outlet<T> out = Outlet.create("Dedup.out");
+        private final FlowShape<T, T> shape = FlowShape.of(in, out);
+
+        private final ToLongFunction<T> id;
+        private final Supplier<DedupWindow> window;
+
+        Dedup(ToLongFunction<T> id, Supplier<DedupWindow> window) {
+            this.id = id;
+            this.window = window;
+        }
+
+        @Override
+        public FlowShape<T, T> shape() {
+            return shape;
+        }
+
+        @Override
+        public Attributes initialAttributes() {
+            return Attributes.name("dedup");
+        }
+
+        @Override
+        public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+            return new GraphStageLogic(shape) {
+                private final DedupWindow lastMessages = window.get();
+
+                {
+                    setHandler(in, new AbstractInHandler() {
+                        @Override
+                        public void onPush() {
+                            final T elem = grab(in);
+                            if (lastMessages.add(id.applyAsLong(elem))) {
+                                push(out, elem);
+                            } else {
+                                // Dropped, so ask for the next one in its place
+                                pull(in);
+                            }
+                        }
+                    });
+                    setHandler(out, new AbstractOutHandler() {
+                        @Override
+                        public void onPull() {
+                            pull(in);
+                        }
+                    });
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package aia.testdriven;
+
+/**
+ * The ids a FilteringActor remembers in order to drop duplicates.
+ */
+public interface DedupWindow {
+
+    /**
+     * Remembers the id unless the window already holds it.
+     *
+     * @return true if the id was not in the window, false for a duplicate
+     */
+    boolean add(long id);
+
+    /**
+     * @return how many ids have been forgotten to keep the window bounded
+     */
+    long evictions();
+}
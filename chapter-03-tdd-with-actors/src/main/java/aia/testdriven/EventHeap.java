@@ -0,0 +1,97 @@
+package aia.testdriven;
+
+import aia.testdriven.SendingActor.Event;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of events keyed by their primitive id. Events with the same id come
+ * out in the order they were added. The arrays double when full and are reused as the
+ * heap drains, so a heap that reached its largest size no longer allocates.
+ */
+final class EventHeap {
+
+    private long[] ids;
+    private long[] arrivals;   // Breaks ties between equal ids
+    private Event[] events;
+    private int size = 0;
+    private long added = 0;
+
+    EventHeap(int initialCapacity) {
+        final int capacity = Math.max(2, initialCapacity);
+        ids = new long[capacity];
+        arrivals = new long[capacity];
+        events = new Event[capacity];
+    }
+
+    void add(Event event) {
+        if (size == ids.length) grow();
+        int i = size++;
+        final long id = event.id;
+        final long arrival = added++;
+        // Sift up
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (!less(id, arrival, ids[parent], arrivals[parent])) break;
+            move(parent, i);
+            i = parent;
+        }
+        set(i, id, arrival, event);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Only valid when the heap is not empty
+    long minId() {
+        return ids[0];
+    }
+
+    Event poll() {
+        final Event min = events[0];
+        size--;
+        final long id = ids[size];
+        final long arrival = arrivals[size];
+        final Event last = events[size];
+        events[size] = null;
+        if (size > 0) {
+            // Sift the last element down from the root
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && less(ids[child + 1], arrivals[child + 1], ids[child], arrivals[child])) child++;
+                if (!less(ids[child], arrivals[child], id, arrival)) break;
+                move(child, i);
+                i = child;
+            }
+            set(i, id, arrival, last);
+        }
+        return min;
+    }
+
+    private static boolean less(long id, long arrival, long otherId, long otherArrival) {
+        return id < otherId || (id == otherId && arrival < otherArrival);
+    }
+
+    private void move(int from, int to) {
+        set(to, ids[from], arrivals[from], events[from]);
+    }
+
+    private void set(int i, long id, long arrival, Event event) {
+        ids[i] = id;
+        arrivals[i] = arrival;
+        events[i] = event;
+    }
+
+    private void grow() {
+        ids = Arrays.copyOf(ids, ids.length * 2);
+        arrivals = Arrays.copyOf(arrivals, arrivals.length * 2);
+        events = Arrays.copyOf(events, events.length * 2);
+    }
+}
@@ -0,0 +1,339 @@
+package aia.testdriven;
+
+import aia.testdriven.SendingActor.Event;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts events by id without boxing them.
+ *
+ * The ids are copied into a long[] next to the positions of their events, and both arrays
+ * are sorted together by a stable merge sort whose halves run in parallel on the fork/join
+ * pool.
+ *
+ * The events are read in runs of at most {@code maxInMemory}. A batch that fits in one run
+ * is kept as it is, with the order in which to read it. Otherwise each run is sorted and
+ * spilled, events and all, to a temporary file, and dropped: only one run is in memory
+ * while sorting. The runs are merged k-way while the result is iterated, with one buffer
+ * per run, and deleted when it is closed.
+ */
+public final class EventSorter {
+
+    // Below this size, halves are sorted on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int INSERTION_THRESHOLD = 32;
+
+    private final int maxInMemory;
+
+    public EventSorter(int maxInMemory) {
+        if (maxInMemory < 1) throw new IllegalArgumentException("maxInMemory must be positive: " + maxInMemory);
+        this.maxInMemory = maxInMemory;
+    }
+
+    /**
+     * @return the events, in the order of their ids
+     */
+    public Sorted sort(Iterable<Event> events) {
+        final Iterator<Event> unsorted = events.iterator();
+        final ArrayList<Event> run = new ArrayList<>();
+        while (unsorted.hasNext() && run.size() < maxInMemory) {
+            run.add(unsorted.next());
+        }
+        if (!unsorted.hasNext()) {
+            return new InMemory(run.toArray(new Event[0]), sortRun(run));
+        }
+
+        final Spilled spilled = new Spilled();
+        try {
+            while (!run.isEmpty()) {
+                spilled.add(run, sortRun(run));
+                run.clear();
+                while (unsorted.hasNext() && run.size() < maxInMemory) {
+                    run.add(unsorted.next());
+                }
+            }
+        } catch (IOException e) {
+            spilled.close();
+            throw new UncheckedIOException("Could not spill a sorted run", e);
+        }
+        return spilled;
+    }
+
+    // Sorts the run and returns the positions of its events in id order
+    private static int[] sortRun(List<Event> run) {
+        final int n = run.size();
+        final long[] ids = new long[n];
+        final int[] positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = run.get(i).id;
+            positions[i] = i;
+        }
+        ForkJoinPool.commonPool().invoke(new MergeSort(ids, positions, new long[n], new int[n], 0, n));
+        return positions;
+    }
+
+    // The whole event is spilled, so that it can be dropped from memory
+    private static void write(DataOutputStream out, Event event) throws IOException {
+        out.writeLong(event.id);
+    }
+
+    private static Event read(DataInputStream in) throws IOException {
+        return new Event(in.readLong());
+    }
+
+    /**
+     * A batch of events, sorted by id.
+     */
+    public interface Sorted extends Iterable<Event>, AutoCloseable {
+
+        int size();
+
+        /**
+         * Closes the runs still being read and deletes them, if any.
+         */
+        @Override
+        void close();
+    }
+
+    private static final class InMemory implements Sorted {
+        private final Event[] events;
+        private final int[] positions;
+
+        InMemory(Event[] events, int[] positions) {
+            this.events = events;
+            this.positions = positions;
+        }
+
+        @Override
+        public int size() {
+            return events.length;
+        }
+
+        @Override
+        public Iterator<Event> iterator() {
+            return new Iterator<Event>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < positions.length;
+                }
+
+                @Override
+                public Event next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return events[positions[next++]];
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Spilled implements Sorted {
+        private final List<Path> runs = new ArrayList<>();
+        // Every reader opened, so that close() can close those not read to the end
+        private final List<RunReader> readers = new ArrayList<>();
+        private int size = 0;
+        private boolean closed = false;
+
+        // Writes the run in the order of the positions
+        void add(List<Event> run, int[] positions) throws IOException {
+            final Path file = Files.createTempFile("sorted-run-", ".bin");
+            runs.add(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                for (int position : positions) {
+                    write(out, run.get(position));
+                }
+            }
+            size += positions.length;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Event> iterator() {
+            if (closed) throw new IllegalStateException("The sorted runs were deleted");
+
+            // Runs hold consecutive slices of the batch, so ties go to the lower run to keep the sort stable
+            final PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(),
+                    Comparator.<RunReader>comparingLong(r -> r.head.id).thenComparingInt(r -> r.run));
+            for (int i = 0; i < runs.size(); i++) {
+                final RunReader reader = new RunReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.advance()) heads.add(reader);
+            }
+
+            return new Iterator<Event>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public Event next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    final RunReader reader = heads.poll();
+                    final Event head = reader.head;
+                    if (reader.advance()) heads.add(reader);
+                    return head;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            readers.clear();
+
+            IOException failure = null;
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) throw new UncheckedIOException("Could not delete a sorted run", failure);
+        }
+    }
+
+    private static final class RunReader {
+        private final DataInputStream in;
+        private final int run;
+        Event head;
+
+        RunReader(Path file, int run) {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the sorted run " + file, e);
+            }
+            this.run = run;
+        }
+
+        // Reads the next event, closing the file at its end
+        boolean advance() {
+            try {
+                head = read(in);
+                return true;
+            } catch (EOFException e) {
+                close();
+                return false;
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            head = null;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing left to read anyway
+            }
+        }
+    }
+
+    // Stable merge sort of ids[lo, hi), moving positions along with their ids
+    private static final class MergeSort extends RecursiveAction {
+        private final long[] ids;
+        private final int[] positions;
+        private final long[] tmpIds;
+        private final int[] tmpPositions;
+        private final int lo;
+        private final int hi;
+
+        MergeSort(long[] ids, int[] positions, long[] tmpIds, int[] tmpPositions, int lo, int hi) {
+            this.ids = ids;
+            this.positions = positions;
+            this.tmpIds = tmpIds;
+            this.tmpPositions = tmpPositions;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= PARALLEL_THRESHOLD) {
+                sort(lo, hi);
+                return;
+            }
+            final int mid = (lo + hi) >>> 1;
+            invokeAll(new MergeSort(ids, positions, tmpIds, tmpPositions, lo, mid),
+                    new MergeSort(ids, positions, tmpIds, tmpPositions, mid, hi));
+            merge(lo, mid, hi);
+        }
+
+        private void sort(int from, int to) {
+            if (to - from <= INSERTION_THRESHOLD) {
+                insertionSort(from, to);
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            sort(from, mid);
+            sort(mid, to);
+            merge(from, mid, to);
+        }
+
+        private void insertionSort(int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                final long id = ids[i];
+                final int position = positions[i];
+                int j = i - 1;
+                while (j >= from && ids[j] > id) {
+                    ids[j + 1] = ids[j];
+                    positions[j + 1] = positions[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+                positions[j + 1] = position;
+            }
+        }
+
+        private void merge(int from, int mid, int to) {
+            if (ids[mid - 1] <= ids[mid]) return;  // Already in order
+
+            System.arraycopy(ids, from, tmpIds, from, to - from);
+            System.arraycopy(positions, from, tmpPositions, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                // Equal ids are taken from the left half first, which keeps the sort stable
+                if (right >= to || (left < mid && tmpIds[left] <= tmpIds[right])) {
+                    ids[i] = tmpIds[left];
+                    positions[i] = tmpPositions[left++];
+                } else {
+                    ids[i] = tmpIds[right];
+                    positions[i] = tmpPositions[right++];
+                }
+            }
+        }
+    }
+}
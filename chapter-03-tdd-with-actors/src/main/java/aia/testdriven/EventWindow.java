@@ -0,0 +1,70 @@
+package aia.testdriven;
+
+/**
+ * A window over the last {@code capacity} distinct event ids.
+ *
+ * The ids are kept twice: in a ring buffer, in arrival order, to know which one to evict,
+ * and in an open-addressing hash set of primitive longs to answer lookups. Both are
+ * allocated up front, so adding, evicting and looking up an id is O(1) and allocates nothing.
+ */
+public final class EventWindow implements DedupWindow {
+
+    private final long[] ring;     // ids in arrival order, oldest at head
+    private int head = 0;
+    private int size = 0;
+    private long evictions = 0;
+
+    private final LongHashSet ids;
+
+    public EventWindow(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        this.ring = new long[capacity];
+        this.ids = new LongHashSet(capacity);
+    }
+
+    /**
+     * Adds the id unless it is already in the window, evicting the oldest id when the window is full.
+     *
+     * @return true if the id was not in the window
+     */
+    @Override
+    public boolean add(long id) {
+        if (contains(id)) return false;
+        if (ring.length == 0) return true;
+
+        if (size == ring.length) {
+            ids.remove(ring[head]);
+            evictions++;
+            ring[head] = id;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + size) % ring.length] = id;
+            size++;
+        }
+        ids.add(id);
+        return true;
+    }
+
+    public boolean contains(long id) {
+        return ids.contains(id);
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public void clear() {
+        ids.clear();
+        head = 0;
+        size = 0;
+    }
+}
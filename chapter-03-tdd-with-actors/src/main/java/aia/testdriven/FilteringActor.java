@@ -2,32 +2,73 @@ package aia.testdriven;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
-import io.vavr.collection.List;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
- * The FilteringActor keeps a buffer of the last messages that it received in a List
- * and adds every received message to that buffer if it doesn't already exist in the list.
+ * The FilteringActor keeps a buffer of the last messages that it received in an EventWindow
+ * and adds every received message to that buffer if it doesn't already exist in the window.
  * Only messages that aren't in the buffer are sent to the nextActor. The oldest message
  * that was received is discarded when a max bufferSize is reached to prevent the last-
- * Messages list from growing too large and possibly causing us to run out of space.
+ * Messages buffer from growing too large and possibly causing us to run out of space.
+ *
+ * Instead of the last bufferSize messages, the buffer can also hold the messages of the
+ * last period of time (TimeWindow), or an approximation of the last messages in a fixed
+ * amount of memory (BloomWindow). GetStats tells how many duplicates were dropped and how
+ * many messages the buffer had to forget.
+ *
+ * In batching mode the messages that pass the filter are collected and sent to the nextActor
+ * together in one Batch, once batchSize of them are collected or linger has passed since the
+ * first one, whichever comes first.
  */
 public class FilteringActor extends AbstractLoggingActor {
 
     static public Props props(ActorRef nextActor, Integer bufferSize) {
-        return Props.create(FilteringActor.class, () -> new FilteringActor(nextActor, bufferSize));
+        return Props.create(FilteringActor.class, () -> new FilteringActor(nextActor, new EventWindow(bufferSize)));
+    }
+
+    // Drops the messages already received during the last period
+    static public Props props(ActorRef nextActor, Duration period) {
+        return Props.create(FilteringActor.class, () -> new FilteringActor(nextActor, new TimeWindow(period)));
+    }
+
+    // Drops the messages already received among roughly the last expectedIds, with a fixed memory budget
+    static public Props props(ActorRef nextActor, int expectedIds, double falsePositiveRate) {
+        return Props.create(FilteringActor.class,
+                () -> new FilteringActor(nextActor, new BloomWindow(expectedIds, falsePositiveRate)));
+    }
+
+    // Sends the messages that pass the filter in batches of at most batchSize, held at most linger
+    static public Props props(ActorRef nextActor, Integer bufferSize, int batchSize, Duration linger) {
+        return Props.create(FilteringActor.class,
+                () -> new FilteringActor(nextActor, new EventWindow(bufferSize), batchSize, linger));
     }
 
     private final ActorRef nextActor;
-    private final Integer bufferSize;
-    List<Event> lastMessages = List.empty();
+    final DedupWindow lastMessages;
+    private long hits = 0;
+
+    private final Event[] batch;   // Allocated once, copied into each Batch sent
+    private int batched = 0;
+    private final Duration linger;
+    private Cancellable lingerTimer = null;
 
-    // Max size for the buffer is passed into constructor
-    private FilteringActor(ActorRef nextActor, Integer bufferSize) {
+    // The buffer is passed into constructor
+    private FilteringActor(ActorRef nextActor, DedupWindow lastMessages) {
+        this(nextActor, lastMessages, 0, null);
+    }
+
+    private FilteringActor(ActorRef nextActor, DedupWindow lastMessages, int batchSize, Duration linger) {
         this.nextActor = nextActor;
-        this.bufferSize = bufferSize;
+        this.lastMessages = lastMessages;
+        this.batch = batchSize > 0 ? new Event[batchSize] : null;
+        this.linger = linger;
     }
 
     @Override
@@ -36,22 +77,54 @@ public class FilteringActor extends AbstractLoggingActor {
                 .match(
                         Event.class,
                         msg -> {
-                            if (!lastMessages.contains(msg)) {
-                                lastMessages = lastMessages.append(msg);
+                            // Oldest event in the buffer is discarded when max
+                            // buffer size is reached
+                            if (lastMessages.add(msg.id)) {
                                 // Event is sent to next actor if it's not
                                 // found in the buffer
-                                nextActor.tell(msg, getSelf());
-                                if (lastMessages.size() > bufferSize) {
-                                    // Oldest event in the buffer is discarded when max
-                                    // buffer size is reached
-                                    lastMessages = lastMessages.tail();
-                                }
+                                forward(msg);
+                            } else {
+                                hits++;
                             }
                         }
                 )
+                .match(GetStats.class, msg -> getSender().tell(new Stats(hits, lastMessages.evictions()), getSelf()))
+                .match(Flush.class, msg -> flush())
                 .build();
     }
 
+    @Override
+    public void postStop() {
+        flush();
+    }
+
+    private void forward(Event msg) {
+        if (batch == null) {
+            nextActor.tell(msg, getSelf());
+            return;
+        }
+
+        batch[batched++] = msg;
+        if (batched == batch.length) {
+            flush();
+        } else if (batched == 1) {
+            lingerTimer = getContext().getSystem().scheduler()
+                    .scheduleOnce(linger, getSelf(), new Flush(), getContext().dispatcher(), getSelf());
+        }
+    }
+
+    private void flush() {
+        if (lingerTimer != null) {
+            lingerTimer.cancel();
+            lingerTimer = null;
+        }
+        if (batched > 0) {
+            nextActor.tell(new Batch(Arrays.copyOf(batch, batched)), getSelf());
+            Arrays.fill(batch, 0, batched, null);
+            batched = 0;
+        }
+    }
+
     public static class Event{
         public final Long id;
 
@@ -72,4 +145,56 @@ public class FilteringActor extends AbstractLoggingActor {
             return Objects.hash(id);
         }
     }
+
+    private static class Flush {
+    }
+
+    public static class Batch {
+        public final List<Event> events;
+
+        public Batch(Event... events) {
+            this.events = Collections.unmodifiableList(Arrays.asList(events));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Batch batch = (Batch) o;
+            return Objects.equals(events, batch.events);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(events);
+        }
+    }
+
+    public static class GetStats {
+    }
+
+    public static class Stats {
+        // Duplicates dropped
+        public final long hits;
+        // Messages forgotten by the buffer
+        public final long evictions;
+
+        public Stats(long hits, long evictions) {
+            this.hits = hits;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Stats stats = (Stats) o;
+            return hits == stats.hits && evictions == stats.evictions;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hits, evictions);
+        }
+    }
 }
@@ -2,26 +2,66 @@ package aia.testdriven;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.actor.Terminated;
+import io.vavr.collection.List;
 import io.vavr.control.Option;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
 import static io.vavr.API.None;
 
 /**
  * Listing 3.13 The Greeter actor
  *
  * The Greeter does just on thing: it receives a message and outputs it to the console.
+ *
+ * Besides the listener it is created with, which is told every greeting, listeners can
+ * Register and Unregister at any time. Those get their greetings in Notifications of at
+ * most batchSize greetings, and acknowledge each one with an Ack of its number before they
+ * are sent the next. Meanwhile their greetings wait in a queue of queueCapacity, past which the
+ * dropPolicy decides which ones are lost, so a slow listener never holds the greeter back.
+ * Notifications not acknowledged within ackTimeout are given up on and counted as dropped,
+ * so a listener that stops acknowledging gets the next ones anyway.
  */
 public class Greeter02 extends AbstractLoggingActor {
 
+    public enum DropPolicy {DROP_OLDEST, DROP_NEWEST}
+
     static public Props props(Option<ActorRef> listener) {
-        return Props.create(Greeter02.class, () -> new Greeter02(listener));
+        return props(listener, 100, 10_000, DropPolicy.DROP_OLDEST);
+    }
+
+    static public Props props(Option<ActorRef> listener, int batchSize, int queueCapacity, DropPolicy dropPolicy) {
+        return props(listener, batchSize, queueCapacity, dropPolicy, Duration.ofSeconds(5));
+    }
+
+    static public Props props(Option<ActorRef> listener, int batchSize, int queueCapacity, DropPolicy dropPolicy,
+                              Duration ackTimeout) {
+        return Props.create(Greeter02.class,
+                () -> new Greeter02(listener, batchSize, queueCapacity, dropPolicy, ackTimeout));
     }
 
     private final Option<ActorRef> listener;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final DropPolicy dropPolicy;
+    private final Duration ackTimeout;
+    private final Map<ActorRef, Subscription> subscriptions = new LinkedHashMap<>();
 
-    private Greeter02(Option<ActorRef> listener) {
+    private Greeter02(Option<ActorRef> listener, int batchSize, int queueCapacity, DropPolicy dropPolicy,
+                      Duration ackTimeout) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
         this.listener = listener.orElse(None());
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.dropPolicy = dropPolicy;
+        this.ackTimeout = ackTimeout;
     }
 
     @Override
@@ -32,10 +72,118 @@ public class Greeter02 extends AbstractLoggingActor {
                     String message = "Hello " + who + "!";
                     log().info(message);
                     listener.forEach(__ -> __.tell(message, ActorRef.noSender()));
+                    for (Subscription subscription : subscriptions.values()) {
+                        subscription.offer(message);
+                        subscription.sendIfIdle();
+                    }
+                })
+                .match(Register.class, msg -> {
+                    if (!subscriptions.containsKey(msg.listener)) {
+                        subscriptions.put(msg.listener, new Subscription(msg.listener));
+                        getContext().watch(msg.listener);
+                    }
+                })
+                .match(Unregister.class, msg -> unregister(msg.listener))
+                .match(Terminated.class, msg -> unregister(msg.getActor()))
+                .match(Ack.class, msg -> {
+                    final Subscription subscription = subscriptions.get(getSender());
+                    if (subscription != null && subscription.acknowledged(msg.number)) {
+                        subscription.sendIfIdle();
+                    }
+                })
+                .match(AckTimeout.class, msg -> {
+                    final Subscription subscription = subscriptions.get(msg.listener);
+                    if (subscription != null) {
+                        subscription.timedOut(msg.sent);
+                        subscription.sendIfIdle();
+                    }
                 })
                 .build();
     }
 
+    @Override
+    public void postStop() {
+        subscriptions.values().forEach(Subscription::cancelAckTimer);
+    }
+
+    private void unregister(ActorRef listener) {
+        final Subscription subscription = subscriptions.remove(listener);
+        if (subscription != null) {
+            subscription.cancelAckTimer();
+            getContext().unwatch(listener);
+        }
+    }
+
+    // The greetings waiting for one listener, in a ring buffer allocated once
+    private final class Subscription {
+        private final ActorRef listener;
+        private final String[] queue = new String[queueCapacity];
+        private int head = 0;
+        private int size = 0;
+        private long dropped = 0;
+        private int inFlight = 0;      // Greetings sent and not acknowledged yet
+        private long sent = 0;         // Notifications sent, the number of the last one
+        private Cancellable ackTimer = null;
+
+        Subscription(ActorRef listener) {
+            this.listener = listener;
+        }
+
+        void offer(String greeting) {
+            if (size == queue.length) {
+                dropped++;
+                if (dropPolicy == DropPolicy.DROP_NEWEST) return;
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+                size--;
+            }
+            queue[(head + size) % queue.length] = greeting;
+            size++;
+        }
+
+        // Sends the next batch unless the last one is not acknowledged yet
+        void sendIfIdle() {
+            if (inFlight > 0 || size == 0) return;
+            final int count = Math.min(size, batchSize);
+            final String[] batch = new String[count];
+            for (int i = 0; i < count; i++) {
+                batch[i] = queue[head];
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+            }
+            size -= count;
+            listener.tell(new Notifications(++sent, List.of(batch), dropped), getSelf());
+            dropped = 0;
+            inFlight = count;
+            ackTimer = getContext().getSystem().scheduler().scheduleOnce(ackTimeout, getSelf(),
+                    new AckTimeout(listener, sent), getContext().dispatcher(), getSelf());
+        }
+
+        // Whether the Ack is that of the Notifications in flight, and not a late one of those given up on
+        boolean acknowledged(long notifications) {
+            if (notifications != sent || inFlight == 0) return false;
+            cancelAckTimer();
+            inFlight = 0;
+            return true;
+        }
+
+        void cancelAckTimer() {
+            if (ackTimer != null) {
+                ackTimer.cancel();
+                ackTimer = null;
+            }
+        }
+
+        // Gives up on the last Notifications if they are still not acknowledged
+        void timedOut(long notifications) {
+            if (notifications != sent || inFlight == 0) return;
+            log().warning("{} did not acknowledge {} greetings within {}", listener, inFlight, ackTimeout);
+            dropped += inFlight;
+            ackTimer = null;
+            inFlight = 0;
+        }
+    }
+
 
     public static class Greeting{
         private final String message;
@@ -49,4 +197,66 @@ public class Greeter02 extends AbstractLoggingActor {
             return  message;
         }
     }
+
+    public static class Register {
+        public final ActorRef listener;
+
+        public Register(ActorRef listener) {
+            this.listener = listener;
+        }
+    }
+
+    public static class Unregister {
+        public final ActorRef listener;
+
+        public Unregister(ActorRef listener) {
+            this.listener = listener;
+        }
+    }
+
+    // Greetings for a registered listener, numbered from 1, and how many were dropped since the last Notifications
+    public static class Notifications {
+        public final long number;
+        public final List<String> greetings;
+        public final long dropped;
+
+        public Notifications(long number, List<String> greetings, long dropped) {
+            this.number = number;
+            this.greetings = greetings;
+            this.dropped = dropped;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Notifications that = (Notifications) o;
+            return number == that.number && dropped == that.dropped && greetings.equals(that.greetings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(number, greetings, dropped);
+        }
+    }
+
+    // Sent back by a registered listener once it is done with the Notifications of that number
+    public static class Ack {
+        public final long number;
+
+        public Ack(long number) {
+            this.number = number;
+        }
+    }
+
+    // The ackTimeout of the sent-th Notifications of a listener
+    private static class AckTimeout {
+        private final ActorRef listener;
+        private final long sent;
+
+        AckTimeout(ActorRef listener, long sent) {
+            this.listener = listener;
+            this.sent = sent;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package aia.testdriven;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of primitive longs, with linear probing and backward shift
+ * deletion. The table is kept at most half full and doubles when it would get fuller,
+ * so a set sized for its largest content never allocates after construction.
+ */
+final class LongHashSet {
+
+    private long[] slots;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    LongHashSet(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1);
+    }
+
+    /**
+     * @return true if the value was not in the set
+     */
+    boolean add(long value) {
+        if (contains(value)) return false;
+        if (size + 1 > slots.length / 2) grow();
+        insert(value);
+        size++;
+        return true;
+    }
+
+    boolean contains(long value) {
+        for (int i = index(value); used[i]; i = (i + 1) & mask) {
+            if (slots[i] == value) return true;
+        }
+        return false;
+    }
+
+    // Backward shift deletion: entries after the hole move up unless they are already at or after their home slot
+    boolean remove(long value) {
+        int hole = index(value);
+        while (used[hole] && slots[hole] != value) hole = (hole + 1) & mask;
+        if (!used[hole]) return false;
+
+        for (int i = (hole + 1) & mask; used[i]; i = (i + 1) & mask) {
+            int home = index(slots[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        used[hole] = false;
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void insert(long value) {
+        int i = index(value);
+        while (used[i]) i = (i + 1) & mask;
+        slots[i] = value;
+        used[i] = true;
+    }
+
+    private void grow() {
+        final long[] oldSlots = slots;
+        final boolean[] oldUsed = used;
+        allocate(slots.length * 2);
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldUsed[i]) insert(oldSlots[i]);
+        }
+    }
+
+    private void allocate(int tableSize) {
+        slots = new long[tableSize];
+        used = new boolean[tableSize];
+        mask = tableSize - 1;
+    }
+
+    private int index(long value) {
+        long h = value * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads sequential ids
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
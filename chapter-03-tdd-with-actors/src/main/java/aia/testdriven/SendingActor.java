@@ -6,31 +6,126 @@ import akka.actor.ActorRef;
 import akka.actor.Props;
 import io.vavr.collection.List;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * The SendingActor sorts the events it receives by id and sends them to the receiver.
+ *
+ * The sort is done by an EventSorter on the primitive ids, reading the events of the
+ * SortEvents as they are. Batches larger than maxInMemory events are sorted in runs spilled
+ * with their events to temporary files, which the SortedEvents merge while they are
+ * iterated; the receiver closes the SortedEvents to delete them.
+ *
+ * Events can also arrive in SortChunks. They wait in an EventHeap until a Watermark says
+ * that no smaller id will come, and the ones it covers are then sent in order in a
+ * SortedChunk. Events that come in below the last watermark are late and dropped. When
+ * more than maxPending events wait, the smallest ones are sent without a watermark.
+ */
 public class SendingActor extends AbstractLoggingActor {
 
     static public Props props(ActorRef receiver) {
-        return Props.create(SendingActor.class, () -> new SendingActor(receiver));
+        return props(receiver, Integer.MAX_VALUE);
+    }
+
+    // Spills the batches of more than maxInMemory events to sorted runs on disk
+    static public Props props(ActorRef receiver, int maxInMemory) {
+        return props(receiver, maxInMemory, Integer.MAX_VALUE);
+    }
+
+    // Keeps at most maxPending events from the SortChunks waiting for a watermark
+    static public Props props(ActorRef receiver, int maxInMemory, int maxPending) {
+        return Props.create(SendingActor.class,
+                () -> new SendingActor(receiver, new EventSorter(maxInMemory), maxPending));
     }
 
     private final ActorRef receiver;
+    private final EventSorter sorter;
 
-    private SendingActor(ActorRef receiver) {
+    private final EventHeap pending = new EventHeap(16);
+    private final int maxPending;
+    private boolean watermarked = false;
+    private long watermark;   // Ids up to the watermark were all sent
+
+    private SendingActor(ActorRef receiver, EventSorter sorter, int maxPending) {
         this.receiver = receiver;
+        this.sorter = sorter;
+        this.maxPending = maxPending;
     }
 
     @Override
     public AbstractActor.Receive createReceive() {
         return receiveBuilder()
-                .match(SortEvents.class, sortEvents -> receiver.tell(new SortedEvents(sortEvents.unsorted.sortBy(__ -> __.id)), ActorRef.noSender()))
+                .match(SortEvents.class, sortEvents -> {
+                    receiver.tell(new SortedEvents(sorter.sort(sortEvents.unsorted)), ActorRef.noSender());
+                })
+                .match(SortChunk.class, chunk -> {
+                    long late = 0;
+                    for (Event event : chunk.events) {
+                        if (watermarked && event.id <= watermark) {
+                            late++;
+                        } else {
+                            pending.add(event);
+                        }
+                    }
+                    if (late > 0) log().warning("Dropped {} events below the watermark {}", late, watermark);
+                    if (pending.size() > maxPending) {
+                        emitSmallest(pending.size() - maxPending);
+                    }
+                })
+                .match(Watermark.class, msg -> {
+                    if (!watermarked || msg.upTo > watermark) {
+                        watermarked = true;
+                        watermark = msg.upTo;
+                    }
+                    emitUpTo(watermark);
+                })
                 .build();
     }
 
+    private void emitUpTo(long upTo) {
+        if (pending.isEmpty() || pending.minId() > upTo) return;
+        final ArrayList<Event> sorted = new ArrayList<>();
+        while (!pending.isEmpty() && pending.minId() <= upTo) {
+            sorted.add(pending.poll());
+        }
+        receiver.tell(new SortedChunk(List.ofAll(sorted)), ActorRef.noSender());
+    }
+
+    // Sends the count smallest events, moving the watermark up to the last of them
+    private void emitSmallest(int count) {
+        final ArrayList<Event> sorted = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sorted.add(pending.poll());
+        }
+        watermarked = true;
+        watermark = sorted.get(count - 1).id;
+        // Events with the same id as the last one sent go along with it
+        while (!pending.isEmpty() && pending.minId() == watermark) {
+            sorted.add(pending.poll());
+        }
+        log().warning("Over {} pending events, sent up to {} without a watermark", maxPending, watermark);
+        receiver.tell(new SortedChunk(List.ofAll(sorted)), ActorRef.noSender());
+    }
+
     public static class Event{
         public final Long id;
 
         public Event(Long id) {
             this.id = id;
         }
+
+        // Events spilled to disk are read back as copies
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Event && Objects.equals(id, ((Event) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(id);
+        }
     }
 
     public static class SortEvents{
@@ -41,10 +136,28 @@ public class SendingActor extends AbstractLoggingActor {
         }
     }
 
-    public class SortedEvents{
+    public static class SortChunk {
+        private final List<Event> events;
+
+        public SortChunk(List<Event> events) {
+            this.events = events;
+        }
+    }
+
+    // No event with an id up to upTo will be sent anymore
+    public static class Watermark {
+        public final long upTo;
+
+        public Watermark(long upTo) {
+            this.upTo = upTo;
+        }
+    }
+
+    // The events of the SortChunks covered by a Watermark, in order
+    public static class SortedChunk {
         private final List<Event> sorted;
 
-        public SortedEvents(List<Event> sorted) {
+        public SortedChunk(List<Event> sorted) {
             this.sorted = sorted;
         }
 
@@ -52,4 +165,32 @@ public class SendingActor extends AbstractLoggingActor {
             return sorted;
         }
     }
+
+    // A sorted view over the events received, read in the order given by the sorter
+    public static class SortedEvents implements Iterable<Event>, AutoCloseable {
+        private final EventSorter.Sorted sorted;
+
+        public SortedEvents(EventSorter.Sorted sorted) {
+            this.sorted = sorted;
+        }
+
+        public int size() {
+            return sorted.size();
+        }
+
+        @Override
+        public Iterator<Event> iterator() {
+            return sorted.iterator();
+        }
+
+        // Copies the whole view into a list
+        public List<Event> events() {
+            return List.ofAll(this);
+        }
+
+        @Override
+        public void close() {
+            sorted.close();
+        }
+    }
 }
@@ -3,30 +3,47 @@ package aia.testdriven;
 import aia.testdriven.SilentActorMsgs.GetState;
 import aia.testdriven.SilentActorMsgs.SilentMessage;
 import akka.actor.AbstractActor;
-import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.Props;
 import io.vavr.collection.List;
 
-import static io.vavr.collection.List.empty;
-
-
+/**
+ * The SilentActor keeps the data of the messages it receives in an AuditBuffer, which
+ * appends in O(1). GetState replies with the whole state, or only with a range or the
+ * tail of it, which copies only the entries asked for.
+ */
 public class SilentActor extends AbstractActor {
 
+    // Keeps at most capacity entries, evicting the oldest or rejecting new ones when full
+    static public Props props(long capacity, AuditBuffer.Eviction eviction, boolean compact) {
+        return Props.create(SilentActor.class, () -> new SilentActor(new AuditBuffer(capacity, eviction, compact)));
+    }
+
     private ActorRef target = null;
-    private List<String> internalState = empty();
+    private final AuditBuffer internalState;
+
+    public SilentActor() {
+        this(new AuditBuffer());
+    }
+
+    private SilentActor(AuditBuffer internalState) {
+        this.internalState = internalState;
+    }
 
     @Override
     public AbstractActor.Receive createReceive() {
         return receiveBuilder()
-                .match(SilentMessage.class, msg -> internalState = internalState.append(msg.data))
+                .match(SilentMessage.class, msg -> internalState.append(msg.data))
                 .match(GetState.class, msg -> {
                             target = msg.receiver;
-                            getSender().tell(state(), getSelf());
+                            getSender().tell(msg.tail
+                                    ? internalState.tail(msg.count)
+                                    : internalState.range(msg.from, msg.count), getSelf());
                         })
                 .build();
     }
 
     public List<String> state() {
-        return internalState;
+        return internalState.toList();
     }
 }
@@ -14,11 +14,31 @@ public interface SilentActorMsgs {
         }
     }
 
+    // Asks for the whole state, or only for count entries from the entry numbered from
     class GetState {
         public final ActorRef receiver;
+        public final long from;
+        public final int count;
+        public final boolean tail;
 
         public GetState(ActorRef receiver) {
+            this(receiver, 0, Integer.MAX_VALUE, false);
+        }
+
+        private GetState(ActorRef receiver, long from, int count, boolean tail) {
             this.receiver = receiver;
+            this.from = from;
+            this.count = count;
+            this.tail = tail;
+        }
+
+        public static GetState range(ActorRef receiver, long from, int count) {
+            return new GetState(receiver, from, count, false);
+        }
+
+        // The last count entries
+        public static GetState tail(ActorRef receiver, int count) {
+            return new GetState(receiver, 0, count, true);
         }
     }
 
@@ -0,0 +1,80 @@
+package aia.testdriven;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * A window over the event ids seen during the last {@code period}.
+ *
+ * Ids are kept in arrival order in a ring buffer next to the time they arrived, and in a
+ * hash set for lookups. Expired ids are dropped from the head of the ring before every add,
+ * so the window holds as many ids as arrive during one period, and the arrays only grow
+ * when the rate goes above anything seen before.
+ */
+public final class TimeWindow implements DedupWindow {
+
+    private final long periodNanos;
+    private final LongSupplier nanoClock;
+
+    private long[] ring = new long[16];  // ids in arrival order, oldest at head
+    private long[] arrivals = new long[16];
+    private int head = 0;
+    private int size = 0;
+    private long evictions = 0;
+
+    private final LongHashSet ids = new LongHashSet(16);
+
+    public TimeWindow(Duration period) {
+        this(period, System::nanoTime);
+    }
+
+    TimeWindow(Duration period, LongSupplier nanoClock) {
+        this.periodNanos = period.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public boolean add(long id) {
+        final long now = nanoClock.getAsLong();
+        expire(now);
+        if (ids.contains(id)) return false;
+
+        if (size == ring.length) grow();
+        final int tail = (head + size) & (ring.length - 1);
+        ring[tail] = id;
+        arrivals[tail] = now;
+        size++;
+        ids.add(id);
+        return true;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void expire(long now) {
+        while (size > 0 && now - arrivals[head] >= periodNanos) {
+            ids.remove(ring[head]);
+            head = (head + 1) & (ring.length - 1);
+            size--;
+            evictions++;
+        }
+    }
+
+    private void grow() {
+        final long[] newRing = new long[ring.length * 2];
+        final long[] newArrivals = new long[ring.length * 2];
+        for (int i = 0; i < size; i++) {
+            newRing[i] = ring[(head + i) & (ring.length - 1)];
+            newArrivals[i] = arrivals[(head + i) & (ring.length - 1)];
+        }
+        ring = newRing;
+        arrivals = newArrivals;
+        head = 0;
+    }
+}
@@ -0,0 +1,69 @@
+package aia.testdriven;
+
+import aia.testdriven.AuditBuffer.Eviction;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuditBufferTest {
+
+    private static List<String> entries(int from, int to) {
+        return List.range(from, to).map(i -> "entry-" + i);
+    }
+
+    @DisplayName("An AuditBuffer returns ranges and tails across its chunks")
+    @ParameterizedTest(name = "compact = {0}")
+    @ValueSource(booleans = {false, true})
+    void rangeAndTail(boolean compact) {
+        final AuditBuffer buffer = new AuditBuffer(Long.MAX_VALUE, Eviction.DROP_OLDEST, compact);
+        entries(0, 3000).forEach(buffer::append);
+
+        assertThat(buffer.size()).isEqualTo(3000);
+        assertThat(buffer.toList()).isEqualTo(entries(0, 3000));
+        assertThat(buffer.range(1000, 50)).isEqualTo(entries(1000, 1050));
+        assertThat(buffer.range(2990, 50)).isEqualTo(entries(2990, 3000));
+        assertThat(buffer.tail(5)).isEqualTo(entries(2995, 3000));
+    }
+
+    @DisplayName("An AuditBuffer forgets its oldest entries when full")
+    @ParameterizedTest(name = "compact = {0}")
+    @ValueSource(booleans = {false, true})
+    void dropOldest(boolean compact) {
+        final AuditBuffer buffer = new AuditBuffer(1500, Eviction.DROP_OLDEST, compact);
+        entries(0, 5000).forEach(buffer::append);
+
+        assertThat(buffer.size()).isEqualTo(1500);
+        assertThat(buffer.first()).isEqualTo(3500);
+        assertThat(buffer.toList()).isEqualTo(entries(3500, 5000));
+        assertThat(buffer.range(3000, 600)).isEqualTo(entries(3500, 3600));
+    }
+
+    @DisplayName("An AuditBuffer rejects new entries when full")
+    @Test
+    void rejectNew() {
+        final AuditBuffer buffer = new AuditBuffer(2, Eviction.REJECT_NEW, false);
+
+        assertThat(buffer.append("a")).isTrue();
+        assertThat(buffer.append("b")).isTrue();
+        assertThat(buffer.append("c")).isFalse();
+        assertThat(buffer.toList()).isEqualTo(List.of("a", "b"));
+        assertThat(buffer.rejected()).isEqualTo(1);
+    }
+
+    @DisplayName("A compact AuditBuffer keeps entries larger than an arena and non-ASCII text")
+    @Test
+    void compactLargeEntries() {
+        final AuditBuffer buffer = new AuditBuffer(Long.MAX_VALUE, Eviction.DROP_OLDEST, true);
+        final String large = new String(new char[AuditBuffer.ARENA_BYTES + 1]).replace('\0', 'x');
+
+        buffer.append("chuchoté");
+        buffer.append(large);
+        buffer.append("après");
+
+        assertThat(buffer.toList()).isEqualTo(List.of("chuchoté", large, "après"));
+    }
+}
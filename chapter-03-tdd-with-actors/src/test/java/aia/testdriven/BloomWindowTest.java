@@ -0,0 +1,43 @@
+package aia.testdriven;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BloomWindowTest {
+
+    @DisplayName("A BloomWindow never lets a duplicate of the last expected ids through")
+    @Test
+    void noFalseNegatives() {
+        final BloomWindow window = new BloomWindow(10_000, 0.01);
+
+        for (long id = 0; id < 10_000; id++) window.add(id);
+        for (long id = 0; id < 10_000; id++) {
+            assertThat(window.add(id)).isFalse();
+        }
+    }
+
+    @DisplayName("A BloomWindow takes about the configured rate of unique ids for duplicates")
+    @Test
+    void falsePositiveRate() {
+        final BloomWindow window = new BloomWindow(100_000, 0.01);
+
+        long falsePositives = 0;
+        for (long id = 0; id < 1_000_000; id++) {
+            if (!window.add(id)) falsePositives++;
+        }
+        assertThat(falsePositives).isLessThan(20_000);
+    }
+
+    @DisplayName("A BloomWindow forgets the oldest generation of ids")
+    @Test
+    void rotates() {
+        final BloomWindow window = new BloomWindow(1_000, 0.001);
+
+        for (long id = 0; id < 3_000; id++) window.add(id);
+
+        assertThat(window.evictions()).isEqualTo(1_000);
+        assertThat(window.sizeInBytes()).isLessThan(10_000);
+    }
+}
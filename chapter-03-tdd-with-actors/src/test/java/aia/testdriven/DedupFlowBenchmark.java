@@ -0,0 +1,103 @@
+package aia.testdriven;
+
+import aia.testdriven.FilteringActor.Event;
+import aia.testdriven.FilteringActor.GetStats;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import scala.concurrent.Await;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of deduplicating a run of events through the DedupFlow stage and through
+ * a FilteringActor, with tell and one ask at the end to wait for the last event.
+ * About half of the events are duplicates.
+ *
+ * Run the main method, the benchmarks are not part of the test suite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DedupFlowBenchmark {
+
+    private static final int EVENTS = 100_000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Param({"100", "10000"})
+    int bufferSize;
+
+    private ActorSystem system;
+    private Materializer materializer;
+    private Iterable<Event> events;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("dedup-benchmark");
+        materializer = ActorMaterializer.create(system);
+        final Random random = new Random(42);
+        final Event[] generated = new Event[EVENTS];
+        for (int i = 0; i < generated.length; i++) {
+            generated[i] = new Event((long) random.nextInt(2 * bufferSize));
+        }
+        events = Arrays.asList(generated);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Await.result(system.terminate(), scala.concurrent.duration.Duration.Inf());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public Object stream() throws Exception {
+        return Source.from(events)
+                .via(DedupFlow.create(bufferSize))
+                .runWith(Sink.ignore(), materializer)
+                .toCompletableFuture().get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public Object actor() throws Exception {
+        final ActorRef sink = system.actorOf(Props.create(Ignore.class));
+        final ActorRef filter = system.actorOf(FilteringActor.props(sink, bufferSize));
+        for (Event event : events) {
+            filter.tell(event, ActorRef.noSender());
+        }
+        // Mailboxes are FIFO: the answers come once the filter, then the sink, went through everything
+        PatternsCS.ask(filter, new GetStats(), TIMEOUT).toCompletableFuture().get();
+        final Object done = PatternsCS.ask(sink, new Identify(0), TIMEOUT).toCompletableFuture().get();
+        system.stop(filter);
+        system.stop(sink);
+        return done;
+    }
+
+    static class Ignore extends AbstractActor {
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder().matchAny(msg -> { }).build();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DedupFlowBenchmark.class.getSimpleName()).build()).run();
+    }
+}
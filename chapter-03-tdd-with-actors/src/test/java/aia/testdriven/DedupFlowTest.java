@@ -0,0 +1,91 @@
+package aia.testdriven;
+
+import aia.testdriven.FilteringActor.Event;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.testkit.TestPublisher;
+import akka.stream.testkit.TestSubscriber;
+import akka.stream.testkit.javadsl.TestSink;
+import akka.stream.testkit.javadsl.TestSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DedupFlowTest extends StopSystemAfterAll {
+
+    private static Materializer materializer;
+
+    @BeforeAll
+    static void createMaterializer() {
+        materializer = ActorMaterializer.create(system);
+    }
+
+    private static List<Long> ids(long... ids) {
+        return Arrays.stream(ids).boxed().collect(toList());
+    }
+
+    @DisplayName("filter out the events already seen, like FilteringActor")
+    @Test
+    void dedupFlow() throws Exception {
+        final List<Event> events = ids(1, 2, 1, 3, 1, 4, 5, 5, 6).stream().map(Event::new).collect(toList());
+
+        final List<Event> result = Source.from(events)
+                .via(DedupFlow.create(5))
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+
+        assertThat(result.stream().map(e -> e.id).collect(toList())).isEqualTo(ids(1, 2, 3, 4, 5, 6));
+    }
+
+    @DisplayName("pull one more element upstream for every duplicate dropped")
+    @Test
+    void dedupFlowBackpressure() {
+        final Pair<TestPublisher.Probe<Event>, TestSubscriber.Probe<Event>> probes =
+                TestSource.<Event>probe(system)
+                        .via(DedupFlow.create(5))
+                        .toMat(TestSink.probe(system), (pub, sub) -> new Pair<>(pub, sub))
+                        .run(materializer);
+        final TestPublisher.Probe<Event> upstream = probes.first();
+        final TestSubscriber.Probe<Event> downstream = probes.second();
+
+        downstream.request(1);
+        upstream.sendNext(new Event(1L));
+        downstream.expectNext(new Event(1L));
+
+        downstream.request(1);
+        upstream.sendNext(new Event(1L));
+        upstream.sendNext(new Event(2L));
+        downstream.expectNext(new Event(2L));
+
+        upstream.sendComplete();
+        downstream.expectComplete();
+    }
+
+    @DisplayName("deduplicate every key on its own")
+    @Test
+    void dedupFlowPerKey() throws Exception {
+        // Every event is a (key, id) pair
+        final List<Pair<String, Long>> events = asList(
+                new Pair<>("a", 1L), new Pair<>("b", 1L), new Pair<>("a", 1L),
+                new Pair<>("b", 2L), new Pair<>("b", 1L), new Pair<>("a", 2L));
+
+        final List<Pair<String, Long>> result = Source.from(events)
+                .via(DedupFlow.perKey(Pair::first, 10, Pair::second, () -> new EventWindow(5)))
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+
+        assertThat(result).containsExactlyInAnyOrder(
+                new Pair<>("a", 1L), new Pair<>("b", 1L), new Pair<>("b", 2L), new Pair<>("a", 2L));
+    }
+}
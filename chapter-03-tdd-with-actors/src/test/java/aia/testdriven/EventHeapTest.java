@@ -0,0 +1,38 @@
+package aia.testdriven;
+
+import aia.testdriven.SendingActor.Event;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventHeapTest {
+
+    @DisplayName("An EventHeap gives back its events by id, equal ids in the order they were added")
+    @Test
+    void pollInOrder() {
+        final Random random = new Random(42);
+        final EventHeap heap = new EventHeap(2);
+        final List<Event> added = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            final Event event = new Event((long) random.nextInt(100));
+            heap.add(event);
+            added.add(event);
+        }
+
+        final List<Event> polled = new ArrayList<>();
+        while (!heap.isEmpty()) {
+            final long minId = heap.minId();
+            polled.add(heap.poll());
+            assertThat(polled.get(polled.size() - 1).id).isEqualTo(minId);
+        }
+
+        added.sort(Comparator.comparingLong(e -> e.id));
+        assertThat(polled).containsExactlyElementsOf(added);
+    }
+}
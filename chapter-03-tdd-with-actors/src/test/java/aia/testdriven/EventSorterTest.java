@@ -0,0 +1,97 @@
+package aia.testdriven;
+
+import aia.testdriven.SendingActor.Event;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EventSorterTest {
+
+    private static List<Event> randomEvents(int size, int distinctIds) {
+        final Random random = new Random(42);
+        return IntStream.range(0, size).mapToObj(__ -> new Event((long) random.nextInt(distinctIds) - distinctIds / 2))
+                .collect(Collectors.toList());
+    }
+
+    // The events in the order a stable sort by id would give
+    private static List<Event> expectedOrder(List<Event> events) {
+        return events.stream().sorted(Comparator.comparingLong(event -> event.id)).collect(Collectors.toList());
+    }
+
+    private static List<Event> toList(EventSorter.Sorted sorted) {
+        final List<Event> events = new ArrayList<>();
+        sorted.forEach(events::add);
+        return events;
+    }
+
+    private static long spilledRuns() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("sorted-run-")).count();
+        }
+    }
+
+    @DisplayName("An EventSorter sorts a large batch in memory, keeping equal ids in arrival order")
+    @Test
+    void sortInMemory() {
+        final List<Event> events = randomEvents(200_000, 1000);
+
+        try (EventSorter.Sorted sorted = new EventSorter(Integer.MAX_VALUE).sort(events)) {
+            final List<Event> expected = expectedOrder(events);
+            final List<Event> actual = toList(sorted);
+            assertThat(actual).isEqualTo(expected);
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(actual.get(i)).isSameAs(expected.get(i));
+            }
+        }
+    }
+
+    @DisplayName("An EventSorter merges the runs it spilled")
+    @Test
+    void sortSpilled() {
+        final List<Event> events = randomEvents(10_000, 100);
+
+        try (EventSorter.Sorted sorted = new EventSorter(999).sort(events)) {
+            assertThat(sorted.size()).isEqualTo(10_000);
+            assertThat(toList(sorted)).isEqualTo(expectedOrder(events));
+        }
+    }
+
+    @DisplayName("An EventSorter deletes its runs when closed, even while they are read")
+    @Test
+    void closeWhileReading() throws IOException {
+        final long before = spilledRuns();
+        final EventSorter.Sorted sorted = new EventSorter(100).sort(randomEvents(1000, 100));
+        assertThat(spilledRuns()).isEqualTo(before + 10);
+
+        final Iterator<Event> first = sorted.iterator();
+        first.next();
+        sorted.iterator().next();
+        sorted.close();
+
+        assertThat(spilledRuns()).isEqualTo(before);
+        assertThatThrownBy(sorted::iterator).isInstanceOf(IllegalStateException.class);
+    }
+
+    @DisplayName("An EventSorter sorts an empty batch")
+    @Test
+    void sortEmpty() {
+        try (EventSorter.Sorted sorted = new EventSorter(10).sort(new ArrayList<>())) {
+            assertThat(sorted.iterator().hasNext()).isFalse();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package aia.testdriven;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventWindowTest {
+
+    @DisplayName("An EventWindow accepts an id only once while it is in the window")
+    @Test
+    void addTwice() {
+        final EventWindow window = new EventWindow(5);
+
+        assertThat(window.add(1L)).isTrue();
+        assertThat(window.add(2L)).isTrue();
+        assertThat(window.add(1L)).isFalse();
+        assertThat(window.size()).isEqualTo(2);
+    }
+
+    @DisplayName("An EventWindow evicts the oldest id when it is full")
+    @Test
+    void evictOldest() {
+        final EventWindow window = new EventWindow(3);
+
+        window.add(1L);
+        window.add(2L);
+        window.add(3L);
+        window.add(4L);
+
+        assertThat(window.contains(1L)).isFalse();
+        assertThat(window.contains(2L)).isTrue();
+        assertThat(window.size()).isEqualTo(3);
+        assertThat(window.add(1L)).isTrue();
+        assertThat(window.contains(2L)).isFalse();
+    }
+
+    @DisplayName("An EventWindow of capacity 0 accepts every id")
+    @Test
+    void emptyWindow() {
+        final EventWindow window = new EventWindow(0);
+
+        assertThat(window.add(1L)).isTrue();
+        assertThat(window.add(1L)).isTrue();
+        assertThat(window.size()).isEqualTo(0);
+    }
+
+    @DisplayName("An EventWindow behaves like a list of the last distinct ids")
+    @Test
+    void sameAsReference() {
+        final Random random = new Random(42);
+        final EventWindow window = new EventWindow(100);
+        final ArrayDeque<Long> order = new ArrayDeque<>();
+        final Set<Long> reference = new HashSet<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            // Few distinct ids, so that lookups hit, and colliding ids, so that probing and deletion get exercised
+            final long id = random.nextInt(300) * 1024L;
+            final boolean expected = !reference.contains(id);
+            if (expected) {
+                order.add(id);
+                reference.add(id);
+                if (order.size() > 100) reference.remove(order.poll());
+            }
+            assertThat(window.add(id)).isEqualTo(expected);
+        }
+        assertThat(window.size()).isEqualTo(reference.size());
+        reference.forEach(id -> assertThat(window.contains(id)).isTrue());
+    }
+}
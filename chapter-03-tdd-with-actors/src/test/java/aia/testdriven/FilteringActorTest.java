@@ -12,6 +12,7 @@ import java.util.Objects;
 
 import static akka.actor.ActorRef.noSender;
 import static akka.japi.JavaPartialFunction.noMatch;
+import static java.time.Duration.ofMillis;
 import static java.time.Duration.ofSeconds;
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
@@ -81,4 +82,83 @@ public class FilteringActorTest extends StopSystemAfterAll {
             }
         };
     }
+
+    @DisplayName("report the duplicates dropped and the messages forgotten by FilteringActor")
+    @Test
+    void filteringActorStats() {
+        new TestKit(system) {
+            {
+                final Props props = FilteringActor.props(getRef(), 2);
+                final ActorRef filter = system.actorOf(props, "filter-3");
+
+                filter.tell(new Event(1L), noSender());
+                filter.tell(new Event(1L), noSender());
+                filter.tell(new Event(2L), noSender());
+                filter.tell(new Event(3L), noSender());
+                filter.tell(new FilteringActor.GetStats(), getRef());
+
+                expectMsg(new Event(1L));
+                expectMsg(new Event(2L));
+                expectMsg(new Event(3L));
+                expectMsg(new FilteringActor.Stats(1, 1));
+            }
+        };
+    }
+
+    @DisplayName("filter out messages received during the last period in FilteringActor")
+    @Test
+    void filteringActorTimeWindow() {
+        new TestKit(system) {
+            {
+                final Props props = FilteringActor.props(getRef(), ofSeconds(60));
+                final ActorRef filter = system.actorOf(props, "filter-4");
+
+                filter.tell(new Event(1L), noSender());
+                filter.tell(new Event(2L), noSender());
+                filter.tell(new Event(1L), noSender());
+                expectMsg(new Event(1L));
+                expectMsg(new Event(2L));
+                expectNoMessage();
+            }
+        };
+    }
+
+    @DisplayName("filter out messages with a Bloom filter in FilteringActor")
+    @Test
+    void filteringActorBloomWindow() {
+        new TestKit(system) {
+            {
+                final Props props = FilteringActor.props(getRef(), 1000, 0.001);
+                final ActorRef filter = system.actorOf(props, "filter-5");
+
+                filter.tell(new Event(1L), noSender());
+                filter.tell(new Event(2L), noSender());
+                filter.tell(new Event(1L), noSender());
+                expectMsg(new Event(1L));
+                expectMsg(new Event(2L));
+                expectNoMessage();
+            }
+        };
+    }
+
+    @DisplayName("send the messages that pass FilteringActor in batches")
+    @Test
+    void filteringActorBatches() {
+        new TestKit(system) {
+            {
+                final Props props = FilteringActor.props(getRef(), 5, 3, ofSeconds(1));
+                final ActorRef filter = system.actorOf(props, "filter-6");
+
+                filter.tell(new Event(1L), noSender());
+                filter.tell(new Event(2L), noSender());
+                filter.tell(new Event(1L), noSender());
+                filter.tell(new Event(3L), noSender());
+                filter.tell(new Event(4L), noSender());
+
+                // Full batch right away, the rest once linger has passed
+                expectMsg(ofMillis(500), new FilteringActor.Batch(new Event(1L), new Event(2L), new Event(3L)));
+                expectMsg(ofSeconds(3), new FilteringActor.Batch(new Event(4L)));
+            }
+        };
+    }
 }
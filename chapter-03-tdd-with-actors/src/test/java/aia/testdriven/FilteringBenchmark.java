@@ -0,0 +1,73 @@
+package aia.testdriven;
+
+import aia.testdriven.FilteringActor.Event;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deduplicating one event, with the vavr List the FilteringActor used to keep
+ * and with the EventWindow it keeps now. About half of the events are duplicates.
+ *
+ * Run the main method, the benchmarks are not part of the test suite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilteringBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    int bufferSize;
+
+    private Event[] events;
+    private int next = 0;
+
+    private List<Event> lastMessages;
+    private EventWindow window;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        events = new Event[1 << 16];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new Event((long) random.nextInt(2 * bufferSize));
+        }
+        lastMessages = List.empty();
+        window = new EventWindow(bufferSize);
+    }
+
+    private Event nextEvent() {
+        next = (next + 1) & (events.length - 1);
+        return events[next];
+    }
+
+    @Benchmark
+    public boolean vavrList() {
+        final Event msg = nextEvent();
+        if (!lastMessages.contains(msg)) {
+            lastMessages = lastMessages.append(msg);
+            if (lastMessages.size() > bufferSize) {
+                lastMessages = lastMessages.tail();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean eventWindow() {
+        return window.add(nextEvent().id);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FilteringBenchmark.class.getSimpleName()).build()).run();
+    }
+}
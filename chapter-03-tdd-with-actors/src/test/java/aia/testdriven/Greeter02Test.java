@@ -14,7 +14,11 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import static io.vavr.API.List;
+import static io.vavr.API.None;
 import static io.vavr.API.Some;
+import static java.time.Duration.ofMillis;
+import static java.util.Arrays.asList;
 
 class Greeter02Test {
     private static ActorSystem system;
@@ -38,4 +42,49 @@ class Greeter02Test {
         greeter.tell(new Greeter02.Greeting("World"), ActorRef.noSender());
         probe.expectMsg("Hello World!");
     }
-}
\ No newline at end of file
+
+    @Test
+    void notifyRegisteredListenersInBatches() {
+        TestKit probe = new TestKit(system);
+        final Props props = Greeter02.props(None(), 2, 3, Greeter02.DropPolicy.DROP_OLDEST);
+
+        ActorRef greeter = system.actorOf(props, "greeter02-2");
+        greeter.tell(new Greeter02.Register(probe.getRef()), ActorRef.noSender());
+        for (String who : asList("a", "b", "c", "d", "e")) {
+            greeter.tell(new Greeter02.Greeting(who), ActorRef.noSender());
+        }
+
+        // The first greeting goes out alone, b is dropped from the queue while it is not acknowledged
+        probe.expectMsg(new Greeter02.Notifications(1, List("Hello a!"), 0));
+        greeter.tell(new Greeter02.Ack(1), probe.getRef());
+        probe.expectMsg(new Greeter02.Notifications(2, List("Hello c!", "Hello d!"), 1));
+        greeter.tell(new Greeter02.Ack(2), probe.getRef());
+        probe.expectMsg(new Greeter02.Notifications(3, List("Hello e!"), 0));
+        greeter.tell(new Greeter02.Ack(3), probe.getRef());
+
+        greeter.tell(new Greeter02.Unregister(probe.getRef()), ActorRef.noSender());
+        greeter.tell(new Greeter02.Greeting("f"), ActorRef.noSender());
+        probe.expectNoMessage(ofMillis(200));
+    }
+
+    @Test
+    void giveUpOnNotificationsNotAcknowledged() {
+        TestKit probe = new TestKit(system);
+        final Props props = Greeter02.props(None(), 1, 10, Greeter02.DropPolicy.DROP_OLDEST, ofMillis(200));
+
+        ActorRef greeter = system.actorOf(props, "greeter02-3");
+        greeter.tell(new Greeter02.Register(probe.getRef()), ActorRef.noSender());
+        greeter.tell(new Greeter02.Greeting("a"), ActorRef.noSender());
+        greeter.tell(new Greeter02.Greeting("b"), ActorRef.noSender());
+        greeter.tell(new Greeter02.Greeting("c"), ActorRef.noSender());
+
+        // a is not acknowledged in time, and counted as dropped once the ack timeout passes
+        probe.expectMsg(new Greeter02.Notifications(1, List("Hello a!"), 0));
+        probe.expectMsg(new Greeter02.Notifications(2, List("Hello b!"), 1));
+        // Its late Ack does not count for b
+        greeter.tell(new Greeter02.Ack(1), probe.getRef());
+        probe.expectMsg(new Greeter02.Notifications(3, List("Hello c!"), 1));
+        greeter.tell(new Greeter02.Ack(3), probe.getRef());
+        probe.expectNoMessage(ofMillis(400));
+    }
+}
@@ -1,8 +1,11 @@
 package aia.testdriven;
 
 import aia.testdriven.SendingActor.Event;
+import aia.testdriven.SendingActor.SortChunk;
 import aia.testdriven.SendingActor.SortEvents;
+import aia.testdriven.SendingActor.SortedChunk;
 import aia.testdriven.SendingActor.SortedEvents;
+import aia.testdriven.SendingActor.Watermark;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.testkit.javadsl.TestKit;
@@ -54,6 +57,72 @@ public class SendingActorTest extends StopSystemAfterAll{
         };
     }
 
+    @DisplayName("A Sending Actor must sort the events in runs on disk when they don't fit in memory")
+    @Test
+    void sendingActorSpillTest() {
+        new TestKit(system) {
+            {
+                final Props props = SendingActor.props(getRef(), 128);
+                final ActorRef sendingActor = system.actorOf(props, "spillingSendingActor");
+
+                final List<Event> unsorted = randomEvents(1000L);
+                sendingActor.tell(new SortEvents(unsorted), noSender());
+
+                try (SortedEvents sorted = expectMsgClass(SortedEvents.class)) {
+                    assertThat(sorted.size()).isEqualTo(1000);
+                    assertThat(sorted.events()).isEqualTo(unsorted.sortBy(__ -> __.id));
+                    // The view can be read again
+                    assertThat(List.ofAll(sorted)).isEqualTo(sorted.events());
+                }
+            }
+        };
+    }
+
+    @DisplayName("A Sending Actor must send the chunks it received in order, up to each watermark")
+    @Test
+    void sendingActorIncrementalTest() {
+        new TestKit(system) {
+            {
+                final ActorRef sendingActor = system.actorOf(SendingActor.props(getRef()), "incrementalSendingActor");
+
+                sendingActor.tell(new SortChunk(events(5L, 1L, 9L)), noSender());
+                sendingActor.tell(new SortChunk(events(3L, 7L)), noSender());
+                sendingActor.tell(new Watermark(5L), noSender());
+                assertThat(ids(expectMsgClass(SortedChunk.class))).isEqualTo(List.of(1L, 3L, 5L));
+
+                // 4 comes after the watermark 5 and is dropped
+                sendingActor.tell(new SortChunk(events(4L, 6L)), noSender());
+                sendingActor.tell(new Watermark(Long.MAX_VALUE), noSender());
+                assertThat(ids(expectMsgClass(SortedChunk.class))).isEqualTo(List.of(6L, 7L, 9L));
+            }
+        };
+    }
+
+    @DisplayName("A Sending Actor must send the smallest events early when too many wait for a watermark")
+    @Test
+    void sendingActorMaxPendingTest() {
+        new TestKit(system) {
+            {
+                final Props props = SendingActor.props(getRef(), Integer.MAX_VALUE, 3);
+                final ActorRef sendingActor = system.actorOf(props, "boundedSendingActor");
+
+                sendingActor.tell(new SortChunk(events(5L, 1L, 9L, 3L, 7L)), noSender());
+                assertThat(ids(expectMsgClass(SortedChunk.class))).isEqualTo(List.of(1L, 3L));
+
+                sendingActor.tell(new Watermark(7L), noSender());
+                assertThat(ids(expectMsgClass(SortedChunk.class))).isEqualTo(List.of(5L, 7L));
+            }
+        };
+    }
+
+    private static List<Event> events(Long... ids) {
+        return List.of(ids).map(Event::new);
+    }
+
+    private static List<Long> ids(SortedChunk chunk) {
+        return chunk.events().map(__ -> __.id);
+    }
+
     private List<Event> randomEvents(Long size) {
         return List.ofAll(range(0L, size).mapToObj(__ -> new Event(random.nextLong())).collect(toList()));
     }
@@ -51,4 +51,28 @@ public class SilentActor01Test extends StopSystemAfterAll{
             }
         };
     }
+
+    @DisplayName("reply with a range or the tail of its internal state")
+    @Test
+    void rangeAndTailTest() {
+        new TestKit(system) {
+            {
+                final Props props = SilentActor.props(3, AuditBuffer.Eviction.DROP_OLDEST, true);
+                final ActorRef silentActor = system.actorOf(props, "S4");
+
+                silentActor.tell(new SilentMessage("whisper1"), noSender());
+                silentActor.tell(new SilentMessage("whisper2"), noSender());
+                silentActor.tell(new SilentMessage("whisper3"), noSender());
+                silentActor.tell(new SilentMessage("whisper4"), noSender());
+
+                silentActor.tell(GetState.tail(getRef(), 2), getRef());
+                expectMsg(List("whisper3", "whisper4"));
+                // whisper1, numbered 0, was evicted
+                silentActor.tell(GetState.range(getRef(), 0, 2), getRef());
+                expectMsg(List("whisper2"));
+                silentActor.tell(new GetState(getRef()), getRef());
+                expectMsg(List("whisper2", "whisper3", "whisper4"));
+            }
+        };
+    }
 }
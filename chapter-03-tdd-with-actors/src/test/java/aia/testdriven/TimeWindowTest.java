@@ -0,0 +1,54 @@
+package aia.testdriven;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeWindowTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @DisplayName("A TimeWindow drops an id seen during the last period")
+    @Test
+    void duplicateWithinPeriod() {
+        final TimeWindow window = new TimeWindow(Duration.ofSeconds(10), now::get);
+
+        assertThat(window.add(1L)).isTrue();
+        now.addAndGet(Duration.ofSeconds(9).toNanos());
+        assertThat(window.add(1L)).isFalse();
+        assertThat(window.evictions()).isEqualTo(0);
+    }
+
+    @DisplayName("A TimeWindow forgets an id once the period is over")
+    @Test
+    void expiredAfterPeriod() {
+        final TimeWindow window = new TimeWindow(Duration.ofSeconds(10), now::get);
+
+        window.add(1L);
+        window.add(2L);
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+
+        assertThat(window.add(1L)).isTrue();
+        assertThat(window.size()).isEqualTo(1);
+        assertThat(window.evictions()).isEqualTo(2);
+    }
+
+    @DisplayName("A TimeWindow grows with the number of ids seen during one period")
+    @Test
+    void growsWithRate() {
+        final TimeWindow window = new TimeWindow(Duration.ofSeconds(10), now::get);
+
+        for (long id = 0; id < 1000; id++) {
+            assertThat(window.add(id)).isTrue();
+            now.incrementAndGet();
+        }
+        for (long id = 0; id < 1000; id++) {
+            assertThat(window.add(id)).isFalse();
+        }
+        assertThat(window.size()).isEqualTo(1000);
+    }
+}